@@ -0,0 +1,88 @@
+package com.hmdp.loadtest;
+
+import com.hmdp.utils.RedisIdWorker;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ID生成器吞吐量：用内存计数器代替redis，只测号段内生成ID的开销，结果只输出日志不做断言，
+ * 耗时受机器负载影响，不适合放在单元测试里
+ * <p>
+ * mvn -P load-test test -Dtest=RedisIdWorkerLoadTest -Dloadtest.ids=5000000
+ */
+@Slf4j
+class RedisIdWorkerLoadTest {
+
+    private static final int IDS = Integer.getInteger("loadtest.ids", 5_000_000);
+    private static final long STEP = 1000;
+
+    /**
+     * 模拟redis的INCRBY，并记录访问次数
+     */
+    private static class SimulatedRedis implements RedisIdWorker.SequenceAllocator {
+        private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+        private final LongAdder calls = new LongAdder();
+
+        @Override
+        public long allocate(String key, long step) {
+            calls.increment();
+            return counters.computeIfAbsent(key, k -> new AtomicLong()).addAndGet(step);
+        }
+    }
+
+    @Test
+    void throughput() throws Exception {
+        SimulatedRedis redis = new SimulatedRedis();
+        RedisIdWorker worker = new RedisIdWorker(redis, STEP, Clock.systemUTC());
+        // 预热，等JIT编译完成
+        for (int i = 0; i < 1_000_000; i++) {
+            worker.nextId("warm-up");
+        }
+
+        long begin = System.nanoTime();
+        long sink = 0;
+        for (int i = 0; i < IDS; i++) {
+            sink ^= worker.nextId("order");
+        }
+        long singleNanos = System.nanoTime() - begin;
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Long>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(pool.submit(() -> {
+                start.await();
+                long x = 0;
+                for (int i = 0; i < IDS / threads; i++) {
+                    x ^= worker.nextId("order");
+                }
+                return x;
+            }));
+        }
+        begin = System.nanoTime();
+        start.countDown();
+        for (Future<Long> future : futures) {
+            sink ^= future.get(60, TimeUnit.SECONDS);
+        }
+        long multiNanos = System.nanoTime() - begin;
+        pool.shutdown();
+
+        log.info("ID生成吞吐量: 单线程 {} 万个/秒, {}线程 {} 万个/秒, 访问redis {} 次 ({})",
+            String.format("%.1f", IDS / (singleNanos / 1e9) / 1e4), threads,
+            String.format("%.1f", IDS / (multiNanos / 1e9) / 1e4), redis.calls.sum(), sink & 1);
+    }
+}
@@ -0,0 +1,320 @@
+package com.hmdp.loadtest;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Voucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.service.IVoucherService;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import redis.embedded.RedisServer;
+
+import javax.annotation.Resource;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_TTL;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 秒杀压测：用内嵌redis和H2内存库启动整个应用，大量用户并发请求 /voucher-order/seckill/{id}，
+ * 统计吞吐量、延迟分位数，等订单全部写入数据库后检查超卖和重复下单
+ * <p>
+ * mvn -P load-test test -Dloadtest.buyers=10000 -Dloadtest.concurrency=200 -Dloadtest.stock=1000 -Dloadtest.requests-per-buyer=2
+ */
+@ActiveProfiles("loadtest")
+@DirtiesContext
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class SeckillLoadTest {
+
+    private static final int BUYERS = Integer.getInteger("loadtest.buyers", 10000);
+    private static final int CONCURRENCY = Integer.getInteger("loadtest.concurrency", 200);
+    private static final int STOCK = Integer.getInteger("loadtest.stock", 1000);
+    private static final int REQUESTS_PER_BUYER = Integer.getInteger("loadtest.requests-per-buyer", 2);
+    private static final int WARMUP_REQUESTS = Integer.getInteger("loadtest.warmup-requests", 2000);
+    private static final long DRAIN_TIMEOUT_MILLIS = Long.getLong("loadtest.drain-timeout", 120000L);
+
+    private static RedisServer redisServer;
+
+    @LocalServerPort
+    private int port;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private IVoucherService voucherService;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @DynamicPropertySource
+    static void redisProperties(DynamicPropertyRegistry registry) throws IOException {
+        int redisPort;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            redisPort = socket.getLocalPort();
+        }
+        redisServer = RedisServer.newRedisServer().port(redisPort).setting("save \"\"").setting("appendonly no")
+            .build();
+        redisServer.start();
+        // 测试类结束时才关闭应用，等订单消费线程退出后进程退出时再停redis
+        RedisServer server = redisServer;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.stop();
+            } catch (IOException ignored) {
+            }
+        }));
+        registry.add("spring.redis.host", () -> "127.0.0.1");
+        registry.add("spring.redis.port", () -> redisPort);
+    }
+
+    @Test
+    void seckill() throws Exception {
+        // HttpURLConnection默认每个地址只保持5个长连接
+        System.setProperty("http.maxConnections", String.valueOf(CONCURRENCY));
+        List<String> tokens = login(BUYERS);
+        // 先用另一张券预热，JIT编译和连接池就绪后再计时
+        long warmupVoucherId = createVoucher();
+        String warmupUrl = "http://127.0.0.1:" + port + "/voucher-order/seckill/" + warmupVoucherId;
+        for (int i = 0; i < WARMUP_REQUESTS; i++) {
+            post(warmupUrl, tokens.get(i % BUYERS));
+        }
+        long voucherId = createVoucher();
+
+        // 每个用户请求多次，打乱顺序，让重复请求和首次请求交错
+        List<Integer> requests = new ArrayList<>(BUYERS * REQUESTS_PER_BUYER);
+        for (int r = 0; r < REQUESTS_PER_BUYER; r++) {
+            for (int i = 0; i < BUYERS; i++) {
+                requests.add(i);
+            }
+        }
+        Collections.shuffle(requests);
+
+        long[] latencies = new long[requests.size()];
+        AtomicInteger cursor = new AtomicInteger();
+        LongAdder succeeded = new LongAdder();
+        LongAdder httpErrors = new LongAdder();
+        Map<String, LongAdder> failures = new ConcurrentHashMap<>();
+        Map<Integer, LongAdder> successPerBuyer = new ConcurrentHashMap<>();
+        String url = "http://127.0.0.1:" + port + "/voucher-order/seckill/" + voucherId;
+
+        ExecutorService pool = Executors.newFixedThreadPool(CONCURRENCY);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(CONCURRENCY);
+        for (int t = 0; t < CONCURRENCY; t++) {
+            pool.execute(() -> {
+                try {
+                    start.await();
+                    int index;
+                    while ((index = cursor.getAndIncrement()) < latencies.length) {
+                        int buyer = requests.get(index);
+                        long begin = System.nanoTime();
+                        String body = post(url, tokens.get(buyer));
+                        latencies[index] = System.nanoTime() - begin;
+                        if (body == null) {
+                            httpErrors.increment();
+                            continue;
+                        }
+                        JSONObject result = JSONUtil.parseObj(body);
+                        if (Boolean.TRUE.equals(result.getBool("success"))) {
+                            succeeded.increment();
+                            successPerBuyer.computeIfAbsent(buyer, b -> new LongAdder()).increment();
+                        } else {
+                            failures.computeIfAbsent(StrUtil.blankToDefault(result.getStr("errorMsg"), "unknown"),
+                                k -> new LongAdder()).increment();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsedNanos = System.nanoTime() - begin;
+        pool.shutdown();
+
+        // 等待消费线程把订单全部写入数据库
+        long drainBegin = System.nanoTime();
+        long orders = countOrders(voucherId);
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+        while (orders < succeeded.sum() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+            orders = countOrders(voucherId);
+        }
+        long drainMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - drainBegin);
+
+        long duplicateOrders = voucherOrderService.listObjs(new QueryWrapper<VoucherOrder>()
+                .select("user_id").eq("voucher_id", voucherId).groupBy("user_id").having("COUNT(*) > 1"))
+            .size();
+        long duplicateSuccesses = successPerBuyer.values().stream().filter(count -> count.sum() > 1).count();
+        SeckillVoucher seckillVoucher = seckillVoucherService.getById(voucherId);
+        long redisStock = Long.parseLong(stringRedisTemplate.opsForValue().get(SECKILL_STOCK_KEY + voucherId));
+        long oversold = Math.max(0, orders - STOCK) + Math.max(0, -seckillVoucher.getStock()) + Math.max(0, -redisStock);
+
+        Arrays.sort(latencies);
+        StringBuilder report = new StringBuilder("\n========== 秒杀压测 ==========\n");
+        report.append(String.format("用户 %d, 并发 %d, 库存 %d, 每人请求 %d 次%n", BUYERS, CONCURRENCY, STOCK,
+            REQUESTS_PER_BUYER));
+        report.append(String.format("请求 %d 次, 耗时 %.2f 秒, 吞吐量 %.0f 次/秒%n", latencies.length,
+            elapsedNanos / 1e9, latencies.length / (elapsedNanos / 1e9)));
+        report.append(String.format("延迟(ms) p50 %.2f, p90 %.2f, p99 %.2f, p99.9 %.2f, max %.2f%n",
+            percentile(latencies, 0.5), percentile(latencies, 0.9), percentile(latencies, 0.99),
+            percentile(latencies, 0.999), latencies[latencies.length - 1] / 1e6));
+        report.append(String.format("下单成功 %d, 失败 %s, HTTP错误 %d%n", succeeded.sum(), toMap(failures),
+            httpErrors.sum()));
+        report.append(String.format("数据库订单 %d (写完用时 %d ms), 数据库库存 %d, redis库存 %d%n", orders, drainMillis,
+            seckillVoucher.getStock(), redisStock));
+        report.append(String.format("超卖 %d, 重复订单 %d, 重复下单成功的用户 %d%n", oversold, duplicateOrders,
+            duplicateSuccesses));
+        report.append(String.format("订单消费 %s%n", voucherOrderService.stats()));
+        System.out.println(report);
+
+        assertEquals(0, oversold, "超卖");
+        assertEquals(0, duplicateOrders, "重复订单");
+        assertEquals(0, duplicateSuccesses, "同一个用户多次下单成功");
+        assertEquals(succeeded.sum(), orders, "下单成功的订单没有全部写入数据库");
+        assertEquals(Math.min(STOCK, BUYERS), orders);
+        assertEquals(STOCK, redisStock + orders);
+        assertEquals(STOCK, seckillVoucher.getStock() + orders);
+        assertTrue(httpErrors.sum() == 0, "HTTP错误");
+    }
+
+    private long createVoucher() {
+        Voucher voucher = new Voucher()
+            .setShopId(1L)
+            .setTitle("压测秒杀券")
+            .setPayValue(100L)
+            .setActualValue(1000L)
+            .setType(1)
+            .setStatus(1);
+        voucher.setStock(STOCK);
+        voucher.setBeginTime(LocalDateTime.now().minusMinutes(1));
+        voucher.setEndTime(LocalDateTime.now().plusHours(1));
+        voucherService.addSeckillVoucher(voucher);
+        return voucher.getId();
+    }
+
+    /**
+     * 直接在redis里写入登录信息，和UserServiceImpl登录后的格式一样
+     */
+    private List<String> login(int count) {
+        List<String> tokens = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            tokens.add("loadtest-" + i);
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection redis = (StringRedisConnection) connection;
+            for (int i = 0; i < count; i++) {
+                String key = LOGIN_USER_KEY + tokens.get(i);
+                Map<String, String> user = new TreeMap<>();
+                user.put("id", String.valueOf(100000L + i));
+                user.put("nickName", "buyer" + i);
+                user.put("icon", "");
+                redis.hMSet(key, user);
+                redis.expire(key, TimeUnit.MINUTES.toSeconds(LOGIN_USER_TTL));
+            }
+            return null;
+        });
+        return tokens;
+    }
+
+    /**
+     * @return 响应体，连接失败或者状态码不是200时返回null
+     */
+    private static String post(String url, String token) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("authorization", token);
+            connection.setDoOutput(true);
+            connection.setConnectTimeout(5000);
+            connection.setReadTimeout(30000);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.flush();
+            }
+            if (connection.getResponseCode() != 200) {
+                drain(connection.getErrorStream());
+                return null;
+            }
+            try (InputStream in = connection.getInputStream()) {
+                return drain(in);
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String drain(InputStream in) throws IOException {
+        if (in == null) {
+            return null;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        in.close();
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private long countOrders(long voucherId) {
+        return voucherOrderService.count(new QueryWrapper<VoucherOrder>().eq("voucher_id", voucherId));
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    private static Map<String, Long> toMap(Map<String, LongAdder> counts) {
+        Map<String, Long> map = new TreeMap<>();
+        counts.forEach((key, value) -> map.put(key, value.sum()));
+        return map;
+    }
+}
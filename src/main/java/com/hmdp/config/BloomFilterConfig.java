@@ -0,0 +1,49 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.RedisBloomFilter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+
+@Configuration
+public class BloomFilterConfig {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Bean
+    public RedisBloomFilter shopBloomFilter(@Value("${hmdp.bloom.shop.expected-insertions:1000000}") long n,
+                                            @Value("${hmdp.bloom.shop.fpp:0.01}") double fpp) {
+        return create("shop", n, fpp);
+    }
+
+    @Bean
+    public RedisBloomFilter voucherBloomFilter(@Value("${hmdp.bloom.voucher.expected-insertions:100000}") long n,
+                                               @Value("${hmdp.bloom.voucher.fpp:0.01}") double fpp) {
+        return create("voucher", n, fpp);
+    }
+
+    @Bean
+    public RedisBloomFilter userBloomFilter(@Value("${hmdp.bloom.user.expected-insertions:1000000}") long n,
+                                            @Value("${hmdp.bloom.user.fpp:0.01}") double fpp) {
+        return create("user", n, fpp);
+    }
+
+    private RedisBloomFilter create(String name, long expectedInsertions, double fpp) {
+        RedisBloomFilter filter = new RedisBloomFilter(name, expectedInsertions, fpp, stringRedisTemplate);
+        // 订阅其他节点的新增广播
+        redisMessageListenerContainer.addMessageListener(
+            (message, pattern) -> filter.onMessage(new String(message.getBody(), StandardCharsets.UTF_8)),
+            new ChannelTopic(filter.getChannel()));
+        return filter;
+    }
+}
@@ -1,6 +1,9 @@
 package com.hmdp.config;
 
+import com.hmdp.utils.AdminInterceptor;
 import com.hmdp.utils.LoginInterceptor;
+import com.hmdp.utils.RateLimitInterceptor;
+import com.hmdp.utils.RateLimiter;
 import com.hmdp.utils.RefreshTokenInterceptor;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -14,10 +17,21 @@ public class MvcConfig implements WebMvcConfigurer {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private RateLimiter rateLimiter;
+
+    @Resource
+    private RateLimitProperties rateLimitProperties;
+
+    @Resource
+    private AdminProperties adminProperties;
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate)).addPathPatterns("/**");
+        registry.addInterceptor(new RateLimitInterceptor(rateLimiter, rateLimitProperties)).addPathPatterns("/**");
         registry.addInterceptor(new LoginInterceptor(stringRedisTemplate)).excludePathPatterns("/user/code", "/user/login", "/blog/hot",
-            "/shop/**", "/shop-type/**", "/voucher/**", "/voucher-order/**");
+            "/shop/**", "/shop-type/**", "/voucher/**");
+        registry.addInterceptor(new AdminInterceptor(adminProperties)).addPathPatterns("/admin/**", "/cache/**");
     }
 }
@@ -0,0 +1,93 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 限流规则，hmdp.rate-limit
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.rate-limit")
+public class RateLimitProperties {
+
+    /**
+     * 是否启用限流
+     */
+    private boolean enabled = true;
+
+    /**
+     * 本地预过滤最多跟踪多少个限流key，超过后新的key只用redis判断
+     */
+    private int localMaxKeys = 100000;
+
+    /**
+     * 可信的反向代理地址，支持ip和IPv4的CIDR。只有请求来自这些地址时才读取X-Forwarded-For，
+     * 为空时只用连接的远端地址，客户端伪造的请求头不会影响按ip限流
+     */
+    private List<String> trustedProxies = new ArrayList<>();
+
+    private List<Rule> rules = new ArrayList<>();
+
+    public enum Algorithm {
+        /**
+         * 令牌桶，允许不超过capacity的突发
+         */
+        TOKEN_BUCKET,
+        /**
+         * 滑动窗口，任意一个周期内最多limit个请求
+         */
+        SLIDING_WINDOW
+    }
+
+    public enum Dimension {
+        /**
+         * 所有请求共用一个额度
+         */
+        GLOBAL,
+        /**
+         * 按客户端ip
+         */
+        IP,
+        /**
+         * 按登录用户，没有登录时按ip
+         */
+        USER
+    }
+
+    @Data
+    public static class Rule {
+        /**
+         * 规则名，用在redis key和监控里
+         */
+        private String name;
+        /**
+         * ant风格的路径
+         */
+        private String path;
+        /**
+         * 请求方法，为空表示所有方法
+         */
+        private String method;
+        private Algorithm algorithm = Algorithm.SLIDING_WINDOW;
+        private Dimension dimension = Dimension.IP;
+        /**
+         * 每个周期允许的请求数，令牌桶是每个周期补充的令牌数
+         */
+        private long limit;
+        private Duration period = Duration.ofSeconds(1);
+        /**
+         * 令牌桶容量，为0时等于limit
+         */
+        private long capacity;
+
+        public long bucketCapacity() {
+            return capacity > 0 ? capacity : limit;
+        }
+    }
+}
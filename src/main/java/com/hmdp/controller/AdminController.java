@@ -0,0 +1,29 @@
+package com.hmdp.controller;
+
+import com.hmdp.dto.Result;
+import com.hmdp.service.ISeckillVoucherService;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * 运维接口，只有 hmdp.admin.user-ids 里的用户可以调用
+ */
+@RestController
+@RequestMapping("/admin")
+public class AdminController {
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    /**
+     * 秒杀库存对账：对比redis和数据库里的库存、订单数
+     * @return 每个进行中和刚结束的秒杀券的对账结果，drift不为0表示不一致
+     */
+    @GetMapping("/seckill/reconcile")
+    public Result reconcileSeckillStock() {
+        return Result.ok(seckillVoucherService.reconcile());
+    }
+}
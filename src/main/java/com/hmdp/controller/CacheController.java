@@ -0,0 +1,135 @@
+package com.hmdp.controller;
+
+import com.hmdp.dto.Result;
+import com.hmdp.service.ICacheOutboxService;
+import com.hmdp.utils.CacheRefreshScheduler;
+import com.hmdp.utils.CacheStats;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.LocalCache;
+import com.hmdp.utils.RedisBloomFilter;
+import com.hmdp.utils.RenderedResponseCache;
+import com.hmdp.utils.ShopCacheWarmer;
+import com.hmdp.utils.ShopNameIndex;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * 缓存运维接口，只有 hmdp.admin.user-ids 里的用户可以调用
+ */
+@RestController
+@RequestMapping("/cache")
+public class CacheController {
+
+    @Resource
+    private CacheStats cacheStats;
+
+    @Resource
+    private ShopCacheWarmer shopCacheWarmer;
+
+    @Resource
+    private CacheRefreshScheduler cacheRefreshScheduler;
+
+    @Resource
+    private List<RedisBloomFilter> bloomFilters;
+
+    @Resource
+    private ICacheOutboxService cacheOutboxService;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private LocalCache localCache;
+
+    @Resource
+    private ShopNameIndex shopNameIndex;
+
+    @Resource
+    private RenderedResponseCache renderedResponseCache;
+
+    /**
+     * 查询本地缓存和redis缓存的命中情况
+     */
+    @GetMapping("/stats")
+    public Result stats() {
+        return Result.ok(cacheStats.snapshot());
+    }
+
+    /**
+     * 查询当前的热点key，以及固定在本地缓存中的key数量
+     */
+    @GetMapping("/hot-keys")
+    public Result hotKeys() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("hotKeys", hotKeyDetector.hotKeys());
+        map.put("pinned", localCache.pinnedSize());
+        return Result.ok(map);
+    }
+
+    /**
+     * 查询缓存重建线程池的队列长度、重建耗时和拒绝次数
+     */
+    @GetMapping("/refresh")
+    public Result refreshStats() {
+        return Result.ok(cacheRefreshScheduler.stats());
+    }
+
+    /**
+     * 查询缓存失效消息的积压和发布延迟
+     */
+    @GetMapping("/outbox")
+    public Result outboxStats() {
+        return Result.ok(cacheOutboxService.stats());
+    }
+
+    /**
+     * 查询布隆过滤器的内存占用和误判率
+     */
+    @GetMapping("/bloom")
+    public Result bloomStats() {
+        return Result.ok(bloomFilters.stream().map(RedisBloomFilter::stats).collect(Collectors.toList()));
+    }
+
+    /**
+     * 查询响应体缓存的命中率、节省的序列化时间和304节省的字节数
+     */
+    @GetMapping("/rendered")
+    public Result renderedStats() {
+        return Result.ok(renderedResponseCache.stats());
+    }
+
+    /**
+     * 查询商铺名称索引的大小
+     */
+    @GetMapping("/shop-name-index")
+    public Result shopNameIndexStats() {
+        return Result.ok(shopNameIndex.stats());
+    }
+
+    /**
+     * 启动商铺缓存预热
+     */
+    @PostMapping("/warm-up/shop")
+    public Result warmUpShop() {
+        if (!shopCacheWarmer.start()) {
+            return Result.fail("预热正在进行中");
+        }
+        return Result.ok(shopCacheWarmer.progress());
+    }
+
+    /**
+     * 查询商铺缓存预热进度，只读，不会启动预热
+     */
+    @GetMapping("/warm-up/shop/progress")
+    public Result warmUpShopProgress() {
+        return Result.ok(shopCacheWarmer.progress());
+    }
+}
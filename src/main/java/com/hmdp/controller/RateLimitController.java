@@ -0,0 +1,28 @@
+package com.hmdp.controller;
+
+import com.hmdp.dto.Result;
+import com.hmdp.utils.RateLimiter;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * 限流运维接口
+ */
+@RestController
+@RequestMapping("/rate-limit")
+public class RateLimitController {
+
+    @Resource
+    private RateLimiter rateLimiter;
+
+    /**
+     * 查询每条限流规则通过、拒绝的次数
+     */
+    @GetMapping("/stats")
+    public Result stats() {
+        return Result.ok(rateLimiter.stats());
+    }
+}
@@ -1,16 +1,21 @@
 package com.hmdp.controller;
 
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+
+import java.time.ZoneId;
+import java.util.List;
+
 import javax.annotation.Resource;
 
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
-import com.hmdp.utils.SystemConstants;
-
-import cn.hutool.core.util.StrUtil;
+import com.hmdp.utils.RenderedResponseCache;
 
 /**
  * <p>
@@ -27,16 +32,44 @@ public class ShopController {
     @Resource
     public IShopService shopService;
 
+    @Resource
+    private RenderedResponseCache renderedResponseCache;
+
     /**
      * 根据id查询商铺信息
      * 
      * @param id
      *            商铺id
-     * @return 商铺详情数据
+     * @return 商铺详情数据，带ETag，If-None-Match一致时返回304
      */
     @GetMapping("/{id}")
-    public Result queryShopById(@PathVariable("id") Long id) {
-        return shopService.queryById(id);
+    public ResponseEntity<?> queryShopById(@PathVariable("id") Long id, WebRequest request) {
+        Result result = shopService.queryById(id);
+        if (!Boolean.TRUE.equals(result.getSuccess())) {
+            return ResponseEntity.ok(result);
+        }
+        Shop shop = (Shop) result.getData();
+        String key = CACHE_SHOP_KEY + id;
+        String etag = etag(shop);
+        // 客户端的数据还是最新的
+        if (request.checkNotModified(etag)) {
+            renderedResponseCache.recordNotModified(key);
+            return null;
+        }
+        byte[] body = renderedResponseCache.render(key, shop, etag);
+        return ResponseEntity.ok().eTag(etag).contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    /**
+     * 根据id批量查询商铺信息
+     *
+     * @param ids
+     *            商铺id列表，逗号隔开
+     * @return 按传入顺序返回存在的商铺
+     */
+    @GetMapping("/batch")
+    public Result queryShopByIds(@RequestParam("ids") List<Long> ids) {
+        return shopService.queryByIds(ids);
     }
 
     /**
@@ -49,9 +82,7 @@ public class ShopController {
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
         // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -72,18 +103,20 @@ public class ShopController {
      * 
      * @param typeId
      *            商铺类型
-     * @param current
-     *            页码
-     * @return 商铺列表
+     * @param cursor
+     *            上一页返回的游标，第一页不传
+     * @param x
+     *            经度，和纬度都传时按距离由近到远排序
+     * @param y
+     *            纬度
+     * @return 商铺列表和下一页的游标
      */
     @GetMapping("/of/type")
     public Result queryShopByType(@RequestParam("typeId") Integer typeId,
-        @RequestParam(value = "current", defaultValue = "1") Integer current) {
-        // 根据类型分页查询
-        Page<Shop> page =
-            shopService.query().eq("type_id", typeId).page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        @RequestParam(value = "cursor", required = false) String cursor,
+        @RequestParam(value = "x", required = false) Double x,
+        @RequestParam(value = "y", required = false) Double y) {
+        return shopService.queryShopByType(typeId, cursor, x, y);
     }
 
     /**
@@ -91,17 +124,34 @@ public class ShopController {
      * 
      * @param name
      *            商铺名称关键字
-     * @param current
-     *            页码
-     * @return 商铺列表
+     * @param cursor
+     *            上一页返回的游标，第一页不传
+     * @return 商铺列表和下一页的游标
      */
     @GetMapping("/of/name")
     public Result queryShopByName(@RequestParam(value = "name", required = false) String name,
-        @RequestParam(value = "current", defaultValue = "1") Integer current) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query().like(StrUtil.isNotBlank(name), "name", name)
-            .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        @RequestParam(value = "cursor", required = false) String cursor) {
+        return shopService.queryShopByName(name, cursor);
+    }
+
+    /**
+     * 商铺名称前缀补全
+     * 
+     * @param prefix
+     *            已经输入的名称前缀
+     * @return 商铺名称列表
+     */
+    @GetMapping("/suggest")
+    public Result suggestShopName(@RequestParam(value = "prefix", required = false) String prefix) {
+        return shopService.suggestShopName(prefix);
+    }
+
+    /**
+     * 强ETag：更新时间只精确到秒，再加上内容的hash，同一秒内的两次修改也能区分
+     */
+    private static String etag(Shop shop) {
+        long updateTime = shop.getUpdateTime() == null ? 0
+            : shop.getUpdateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        return "\"shop-" + shop.getId() + "-" + updateTime + "-" + Integer.toHexString(shop.hashCode()) + "\"";
     }
 }
@@ -2,11 +2,14 @@ package com.hmdp.controller;
 
 import javax.annotation.Resource;
 
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
-import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.service.IShopTypeService;
 
 /**
@@ -23,8 +26,16 @@ public class ShopTypeController {
     @Resource
     private IShopTypeService typeService;
 
+    /**
+     * 查询商铺类型列表，直接返回序列化好的快照，If-None-Match 和版本号一致时返回304
+     */
     @GetMapping("list")
-    public Result queryTypeList() {
-        return typeService.queryShopTypeList();
+    public ResponseEntity<byte[]> queryTypeList(WebRequest request) {
+        ShopTypeSnapshot snapshot = typeService.getSnapshot();
+        if (request.checkNotModified(snapshot.getEtag())) {
+            return null;
+        }
+        return ResponseEntity.ok().eTag(snapshot.getEtag()).contentType(MediaType.APPLICATION_JSON)
+            .body(snapshot.getBody());
     }
 }
@@ -7,6 +7,7 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.UserInfo;
 import com.hmdp.service.IUserInfoService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.RedisBloomFilter;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
@@ -33,6 +34,9 @@ public class UserController {
     @Resource
     private IUserInfoService userInfoService;
 
+    @Resource
+    private RedisBloomFilter userBloomFilter;
+
     /**
      * 发送手机验证码
      */
@@ -68,6 +72,10 @@ public class UserController {
 
     @GetMapping("/info/{id}")
     public Result info(@PathVariable("id") Long userId){
+        // 用户不存在，直接返回
+        if (!userBloomFilter.mightContain(userId)) {
+            return Result.ok();
+        }
         // 查询详情
         UserInfo info = userInfoService.getById(userId);
         if (info == null) {
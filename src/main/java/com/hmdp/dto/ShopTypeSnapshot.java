@@ -0,0 +1,34 @@
+package com.hmdp.dto;
+
+import cn.hutool.crypto.digest.DigestUtil;
+import com.hmdp.entity.ShopType;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * 商铺类型列表的不可变快照
+ * 创建时就序列化好了响应体，请求直接返回字节，不再做redis和json的工作
+ */
+@Getter
+public class ShopTypeSnapshot {
+    /**
+     * 版本号，每次内容变化加1，0表示redis不可用时直接查库得到的临时快照
+     */
+    private final long version;
+    private final List<ShopType> types;
+    /**
+     * Result.ok(types) 序列化后的字节
+     */
+    private final byte[] body;
+    private final String etag;
+
+    public ShopTypeSnapshot(long version, List<ShopType> types, byte[] body) {
+        this.version = version;
+        this.types = types;
+        this.body = body;
+        // 临时快照没有版本号，用内容的摘要区分，内容不同的临时快照不会共用ETag
+        this.etag = version > 0 ? "\"shop-type-" + version + "\""
+            : "\"shop-type-0-" + DigestUtil.md5Hex(body) + "\"";
+    }
+}
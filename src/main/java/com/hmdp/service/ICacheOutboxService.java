@@ -0,0 +1,23 @@
+package com.hmdp.service;
+
+import com.baomidou.mybatisplus.extension.service.IService;
+import com.hmdp.entity.CacheOutbox;
+
+import java.util.Map;
+
+/**
+ * <p>
+ * 服务类
+ * </p>
+ */
+public interface ICacheOutboxService extends IService<CacheOutbox> {
+
+    /**
+     * 在当前事务中记录一条缓存失效消息，事务提交后发布
+     *
+     * @param cacheKey 要删除的缓存key
+     */
+    void addInvalidation(String cacheKey);
+
+    Map<String, Object> stats();
+}
@@ -3,6 +3,9 @@ package com.hmdp.service;
 import com.hmdp.entity.SeckillVoucher;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+import java.util.Map;
+
 /**
  * <p>
  * 秒杀优惠券表，与优惠券是一对一关系 服务类
@@ -13,4 +16,13 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface ISeckillVoucherService extends IService<SeckillVoucher> {
 
+    /**
+     * 把库存和活动时间写入redis
+     */
+    void registerToRedis(SeckillVoucher seckillVoucher);
+
+    /**
+     * 对比进行中和刚结束的秒杀券在redis和数据库里的库存、订单数
+     */
+    List<Map<String, Object>> reconcile();
 }
@@ -4,6 +4,8 @@ import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 
+import java.util.List;
+
 /**
  * <p>
  * 服务类
@@ -15,5 +17,15 @@ import com.hmdp.entity.Shop;
 public interface IShopService extends IService<Shop> {
     Result queryById(Long id);
 
+    Result queryByIds(List<Long> ids);
+
     Result updateShopById(Shop shop);
+
+    Result saveShop(Shop shop);
+
+    Result queryShopByType(Integer typeId, String cursor, Double x, Double y);
+
+    Result queryShopByName(String name, String cursor);
+
+    Result suggestShopName(String prefix);
 }
@@ -1,11 +1,22 @@
 package com.hmdp.service.impl;
 
+import com.hmdp.dto.CursorResult;
+import com.hmdp.dto.Result;
 import com.hmdp.entity.Blog;
+import com.hmdp.entity.User;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
+import com.baomidou.mybatisplus.extension.conditions.query.QueryChainWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.PageCursor;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.util.List;
+
+import static com.hmdp.utils.SystemConstants.MAX_PAGE_SIZE;
+
 /**
  * <p>
  *  服务实现类
@@ -17,4 +28,58 @@ import org.springframework.stereotype.Service;
 @Service
 public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IBlogService {
 
+    @Resource
+    private IUserService userService;
+
+    @Override
+    public Result queryBlogOfUser(Long userId, String cursor) {
+        PageCursor pageCursor;
+        try {
+            pageCursor = PageCursor.decode(cursor);
+        } catch (IllegalArgumentException e) {
+            return Result.fail("无效的游标");
+        }
+        // 按id倒序翻页，走(user_id, id)索引
+        pageCursor = PageCursor.orderedBy(pageCursor, PageCursor.ORDER_ID);
+        long lastId = pageCursor == null ? Long.MAX_VALUE : pageCursor.getId();
+        List<Blog> blogs = query().eq("user_id", userId).lt("id", lastId)
+            .orderByDesc("id").last("LIMIT " + (MAX_PAGE_SIZE + 1)).list();
+        if (blogs.size() <= MAX_PAGE_SIZE) {
+            return Result.ok(new CursorResult(blogs, null));
+        }
+        List<Blog> page = blogs.subList(0, MAX_PAGE_SIZE);
+        return Result.ok(new CursorResult(page, PageCursor.of(page.get(MAX_PAGE_SIZE - 1).getId()).encode()));
+    }
+
+    @Override
+    public Result queryHotBlog(String cursor) {
+        PageCursor pageCursor;
+        try {
+            pageCursor = PageCursor.decode(cursor);
+        } catch (IllegalArgumentException e) {
+            return Result.fail("无效的游标");
+        }
+        // 按(liked, id)倒序翻页，走(liked, id)索引，点赞数相同的用id区分
+        // liked是NOT NULL，NULL在比较时既不小于也不等于游标，会在翻页时被跳过
+        PageCursor likedCursor = PageCursor.orderedBy(pageCursor, PageCursor.ORDER_LIKED);
+        QueryChainWrapper<Blog> wrapper = query();
+        if (likedCursor != null) {
+            wrapper.and(w -> w.lt("liked", likedCursor.getSortKey())
+                .or(o -> o.eq("liked", likedCursor.getSortKey()).lt("id", likedCursor.getId())));
+        }
+        List<Blog> blogs = wrapper.orderByDesc("liked", "id").last("LIMIT " + (MAX_PAGE_SIZE + 1)).list();
+        String next = null;
+        if (blogs.size() > MAX_PAGE_SIZE) {
+            blogs = blogs.subList(0, MAX_PAGE_SIZE);
+            Blog last = blogs.get(MAX_PAGE_SIZE - 1);
+            next = PageCursor.of(PageCursor.ORDER_LIKED, last.getLiked(), last.getId()).encode();
+        }
+        // 查询用户
+        blogs.forEach(blog -> {
+            User user = userService.getById(blog.getUserId());
+            blog.setName(user.getNickName());
+            blog.setIcon(user.getIcon());
+        });
+        return Result.ok(new CursorResult(blogs, next));
+    }
 }
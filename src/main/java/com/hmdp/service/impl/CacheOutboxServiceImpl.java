@@ -0,0 +1,169 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.entity.CacheOutbox;
+import com.hmdp.mapper.CacheOutboxMapper;
+import com.hmdp.service.ICacheOutboxService;
+import com.hmdp.utils.CacheClient;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * 缓存失效消息的发布
+ * 业务事务提交后立即发布一次，失败的由定时任务按退避时间重试
+ * 发布成功后延迟再删一次缓存，清掉事务提交前后被并发读请求写回的旧数据
+ * </p>
+ */
+@Slf4j
+@Service
+public class CacheOutboxServiceImpl extends ServiceImpl<CacheOutboxMapper, CacheOutbox> implements ICacheOutboxService {
+
+    private static final int STATUS_PENDING = 0;
+    private static final int STATUS_PUBLISHED = 1;
+    private static final int RELAY_BATCH_SIZE = 100;
+    private static final long MAX_RETRY_BACKOFF_SECONDS = 60;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Value("${hmdp.cache.outbox.second-delete-delay:1s}")
+    private Duration secondDeleteDelay;
+
+    @Value("${hmdp.cache.outbox.retention:1d}")
+    private Duration retention;
+
+    private final ScheduledExecutorService secondDeleteExecutor =
+        new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("cache-outbox-", true));
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder secondDeleted = new LongAdder();
+    private final LongAdder totalLagMillis = new LongAdder();
+    private final AtomicLong maxLagMillis = new AtomicLong();
+
+    @Override
+    public void addInvalidation(String cacheKey) {
+        CacheOutbox outbox = new CacheOutbox()
+            .setCacheKey(cacheKey)
+            .setStatus(STATUS_PENDING)
+            .setRetryCount(0)
+            .setNextRetryTime(LocalDateTime.now())
+            .setCreateTime(LocalDateTime.now());
+        save(outbox);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            publish(outbox);
+            return;
+        }
+        // 事务提交后再删缓存，避免提交前被并发读请求写回旧数据
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                publish(outbox);
+            }
+        });
+    }
+
+    /**
+     * 重试发布失败或者还没来得及发布的消息
+     */
+    @Scheduled(initialDelay = 5000, fixedDelay = 1000)
+    public void relay() {
+        List<CacheOutbox> pending;
+        try {
+            pending = query().eq("status", STATUS_PENDING).le("next_retry_time", LocalDateTime.now())
+                .orderByAsc("id").last("LIMIT " + RELAY_BATCH_SIZE).list();
+        } catch (Exception e) {
+            log.error("查询待发布的缓存失效消息失败", e);
+            return;
+        }
+        pending.forEach(this::publish);
+    }
+
+    /**
+     * 清理已经发布的历史消息
+     */
+    @Scheduled(initialDelay = 60, fixedDelay = 60, timeUnit = TimeUnit.MINUTES)
+    public void cleanUp() {
+        try {
+            remove(new QueryWrapper<CacheOutbox>().eq("status", STATUS_PUBLISHED)
+                .lt("publish_time", LocalDateTime.now().minus(retention)));
+        } catch (Exception e) {
+            log.error("清理缓存失效消息失败", e);
+        }
+    }
+
+    private void publish(CacheOutbox outbox) {
+        try {
+            cacheClient.delete(outbox.getCacheKey());
+        } catch (Exception e) {
+            failed.increment();
+            int retryCount = outbox.getRetryCount() + 1;
+            long backoff = Math.min(1L << Math.min(retryCount, 6), MAX_RETRY_BACKOFF_SECONDS);
+            log.warn("发布缓存失效消息失败, key: {}, 第{}次, {}秒后重试", outbox.getCacheKey(), retryCount, backoff, e);
+            update().set("retry_count", retryCount).set("next_retry_time", LocalDateTime.now().plusSeconds(backoff))
+                .eq("id", outbox.getId()).eq("status", STATUS_PENDING).update();
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        boolean updated = update().set("status", STATUS_PUBLISHED).set("publish_time", now)
+            .eq("id", outbox.getId()).eq("status", STATUS_PENDING).update();
+        if (!updated) {
+            // 其他节点已经发布过了
+            return;
+        }
+        published.increment();
+        long lag = Duration.between(outbox.getCreateTime(), now).toMillis();
+        totalLagMillis.add(lag);
+        maxLagMillis.accumulateAndGet(lag, Math::max);
+        // 延迟双删
+        secondDeleteExecutor.schedule(() -> {
+            try {
+                cacheClient.delete(outbox.getCacheKey());
+                secondDeleted.increment();
+            } catch (Exception e) {
+                log.warn("延迟删除缓存失败, key: {}", outbox.getCacheKey(), e);
+            }
+        }, secondDeleteDelay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        long count = published.sum();
+        Map<String, Object> map = new LinkedHashMap<>();
+        CacheOutbox oldest = query().eq("status", STATUS_PENDING).orderByAsc("id").last("LIMIT 1").one();
+        map.put("pending", query().eq("status", STATUS_PENDING).count());
+        map.put("oldestPendingLagMillis",
+            oldest == null ? 0 : Duration.between(oldest.getCreateTime(), LocalDateTime.now()).toMillis());
+        map.put("published", count);
+        map.put("failed", failed.sum());
+        map.put("secondDeleted", secondDeleted.sum());
+        map.put("avgPublishLagMillis", count == 0 ? 0D : (double) totalLagMillis.sum() / count);
+        map.put("maxPublishLagMillis", maxLagMillis.get());
+        return map;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        secondDeleteExecutor.shutdown();
+    }
+}
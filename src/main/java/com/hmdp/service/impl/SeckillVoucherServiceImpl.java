@@ -1,20 +1,252 @@
 package com.hmdp.service.impl;
 
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.SeckillVoucherMapper;
+import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.ILock;
+import com.hmdp.utils.RedisLockClient;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static com.hmdp.utils.RedisConstants.LOCK_SECKILL_WARM_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_TIME_KEY;
+import static com.hmdp.utils.SystemConstants.ORDER_STATUS_CANCELLED;
 
 /**
  * <p>
  * 秒杀优惠券表，与优惠券是一对一关系 服务实现类
  * </p>
+ * 秒杀期间的库存、活动时间和已下单用户都在redis里：创建时写入，开始前定时检查并补齐，
+ * 结束后保留一段时间给还没写入数据库的订单撤销用，之后删除
  *
  * @author 虎哥
  * @since 2022-01-04
  */
+@Slf4j
 @Service
 public class SeckillVoucherServiceImpl extends ServiceImpl<SeckillVoucherMapper, SeckillVoucher> implements ISeckillVoucherService {
 
+    private static final int BATCH_SIZE = 500;
+
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> STOCK_SCRIPT;
+
+    static {
+        STOCK_SCRIPT = new DefaultRedisScript<>();
+        STOCK_SCRIPT.setLocation(new ClassPathResource("seckill_stock.lua"));
+        STOCK_SCRIPT.setResultType(List.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private VoucherOrderMapper voucherOrderMapper;
+
+    @Resource
+    private RedisLockClient redisLockClient;
+
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${hmdp.seckill.warm-ahead:10m}")
+    private Duration warmAhead;
+
+    @Value("${hmdp.seckill.retention:1h}")
+    private Duration retention;
+
+    @Override
+    public void registerToRedis(SeckillVoucher seckillVoucher) {
+        Long voucherId = seckillVoucher.getVoucherId();
+        Map<String, String> time = new HashMap<>(4);
+        if (seckillVoucher.getBeginTime() != null) {
+            time.put("begin", String.valueOf(toEpochMilli(seckillVoucher.getBeginTime())));
+        }
+        if (seckillVoucher.getEndTime() != null) {
+            time.put("end", String.valueOf(toEpochMilli(seckillVoucher.getEndTime())));
+        }
+        stringRedisTemplate.delete(SECKILL_TIME_KEY + voucherId);
+        if (!time.isEmpty()) {
+            stringRedisTemplate.opsForHash().putAll(SECKILL_TIME_KEY + voucherId, time);
+        }
+        // 已经在卖的库存不能覆盖
+        stringRedisTemplate.opsForValue().setIfAbsent(SECKILL_STOCK_KEY + voucherId,
+            seckillVoucher.getStock().toString());
+        expireAfterEnd(seckillVoucher);
+    }
+
+    /**
+     * 即将开始和进行中的秒杀券，redis里缺少数据时从数据库补齐
+     */
+    @Scheduled(initialDelay = 10000, fixedDelayString = "${hmdp.seckill.warm-interval:60000}")
+    public void warmUp() {
+        ILock lock = redisLockClient.getLock(LOCK_SECKILL_WARM_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            scan(() -> new QueryWrapper<SeckillVoucher>()
+                .le("begin_time", now.plus(warmAhead))
+                .gt("end_time", now), this::warmUp);
+            evict(now);
+        } catch (Exception e) {
+            log.error("预热秒杀库存失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void warmUp(SeckillVoucher seckillVoucher) {
+        Long voucherId = seckillVoucher.getVoucherId();
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(SECKILL_STOCK_KEY + voucherId))
+            && Boolean.TRUE.equals(stringRedisTemplate.hasKey(SECKILL_TIME_KEY + voucherId))) {
+            return;
+        }
+        // 先恢复已下单的用户，再写库存，库存写入之前lua脚本会拒绝下单。已取消的订单已经归还了库存，用户可以重新下单
+        List<Object> userIds = voucherOrderMapper.selectObjs(new QueryWrapper<VoucherOrder>()
+            .select("user_id").eq("voucher_id", voucherId).ne("status", ORDER_STATUS_CANCELLED));
+        if (!userIds.isEmpty()) {
+            stringRedisTemplate.opsForSet().add(SECKILL_ORDER_KEY + voucherId,
+                userIds.stream().map(String::valueOf).toArray(String[]::new));
+        }
+        registerToRedis(seckillVoucher);
+        log.info("秒杀券{}写入redis, 库存{}, 已下单{}", voucherId, seckillVoucher.getStock(), userIds.size());
+    }
+
+    /**
+     * 结束超过保留时间的秒杀券，删除redis里的数据。库存和活动时间已经自动过期了，
+     * 已下单用户是下单时才创建的，可能没有过期时间
+     */
+    private void evict(LocalDateTime now) {
+        LocalDateTime cutoff = now.minus(retention);
+        scan(() -> new QueryWrapper<SeckillVoucher>()
+            .lt("end_time", cutoff)
+            .ge("end_time", cutoff.minusDays(1)), seckillVoucher -> {
+            Long voucherId = seckillVoucher.getVoucherId();
+            stringRedisTemplate.delete(Arrays.asList(SECKILL_STOCK_KEY + voucherId, SECKILL_TIME_KEY + voucherId,
+                SECKILL_ORDER_KEY + voucherId));
+        });
+    }
+
+    @Override
+    public List<Map<String, Object>> reconcile() {
+        LocalDateTime now = LocalDateTime.now();
+        List<Map<String, Object>> reports = new ArrayList<>();
+        scan(() -> new QueryWrapper<SeckillVoucher>()
+            .le("begin_time", now)
+            .ge("end_time", now.minus(retention)), seckillVoucher -> reports.add(reconcile(seckillVoucher)));
+        return reports;
+    }
+
+    /**
+     * redis扣库存时同时记录下单用户，数据库扣库存时同时插入订单，两边的 库存 + 订单数 都等于初始库存，
+     * 不相等说明有订单丢失或者重复扣减。下单用户数和数据库订单数的差是还没写入数据库的订单。
+     * 取消订单时两边都归还了库存，不算在订单数里
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> reconcile(SeckillVoucher seckillVoucher) {
+        Long voucherId = seckillVoucher.getVoucherId();
+        List<Long> redis = stringRedisTemplate.execute(STOCK_SCRIPT,
+            Arrays.asList(SECKILL_STOCK_KEY + voucherId, SECKILL_ORDER_KEY + voucherId));
+        // 库存和订单数在同一个事务里读，看到的是同一个快照
+        long[] db = transactionTemplate.execute(status -> new long[]{
+            getById(voucherId).getStock(),
+            voucherOrderMapper.selectCount(new QueryWrapper<VoucherOrder>()
+                .eq("voucher_id", voucherId).ne("status", ORDER_STATUS_CANCELLED))});
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("voucherId", voucherId);
+        report.put("dbStock", db[0]);
+        report.put("dbOrders", db[1]);
+        if (redis == null || redis.isEmpty()) {
+            report.put("registered", false);
+            return report;
+        }
+        long redisStock = redis.get(0);
+        long redisOrders = redis.get(1);
+        long drift = redisStock + redisOrders - db[0] - db[1];
+        report.put("registered", true);
+        report.put("redisStock", redisStock);
+        report.put("redisOrders", redisOrders);
+        report.put("inFlight", redisOrders - db[1]);
+        report.put("drift", drift);
+        if (drift != 0) {
+            log.warn("秒杀券{}的redis库存和数据库不一致: {}", voucherId, report);
+        }
+        return report;
+    }
+
+    /**
+     * 定时对账，只记录日志
+     */
+    @Scheduled(initialDelay = 60000, fixedDelayString = "${hmdp.seckill.reconcile-interval:300000}")
+    public void scheduledReconcile() {
+        try {
+            reconcile();
+        } catch (Exception e) {
+            log.error("秒杀库存对账失败", e);
+        }
+    }
+
+    /**
+     * 按voucher_id顺序分批扫描
+     */
+    private void scan(Supplier<QueryWrapper<SeckillVoucher>> condition, Consumer<SeckillVoucher> consumer) {
+        long lastId = 0;
+        while (true) {
+            List<SeckillVoucher> batch = list(condition.get()
+                .gt("voucher_id", lastId)
+                .orderByAsc("voucher_id")
+                .last("LIMIT " + BATCH_SIZE));
+            batch.forEach(consumer);
+            if (batch.size() < BATCH_SIZE) {
+                return;
+            }
+            lastId = batch.get(batch.size() - 1).getVoucherId();
+        }
+    }
+
+    /**
+     * 结束后再保留一段时间，给还没写入数据库的订单撤销用
+     */
+    private void expireAfterEnd(SeckillVoucher seckillVoucher) {
+        if (seckillVoucher.getEndTime() == null) {
+            return;
+        }
+        Date expireAt = new Date(toEpochMilli(seckillVoucher.getEndTime()) + retention.toMillis());
+        Long voucherId = seckillVoucher.getVoucherId();
+        stringRedisTemplate.expireAt(SECKILL_STOCK_KEY + voucherId, expireAt);
+        stringRedisTemplate.expireAt(SECKILL_TIME_KEY + voucherId, expireAt);
+        stringRedisTemplate.expireAt(SECKILL_ORDER_KEY + voucherId, expireAt);
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
 }
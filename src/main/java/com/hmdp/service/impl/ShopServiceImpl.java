@@ -2,27 +2,39 @@ package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.bean.copier.CopyOptions;
-import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.json.JSONUtil;
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.dto.CursorResult;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
+import com.hmdp.service.ICacheOutboxService;
 import com.hmdp.service.IShopService;
-import com.hmdp.utils.RedisData;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheStrategy;
+import com.hmdp.utils.PageCursor;
+import com.hmdp.utils.RedisBloomFilter;
+import com.hmdp.utils.ShopGeoIndex;
+import com.hmdp.utils.ShopGridIndex;
+import com.hmdp.utils.ShopNameIndex;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
-import java.time.LocalDateTime;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
+import static com.hmdp.utils.SystemConstants.DEFAULT_PAGE_SIZE;
+import static com.hmdp.utils.SystemConstants.MAX_BATCH_SIZE;
+import static com.hmdp.utils.SystemConstants.MAX_DISTANCE_OFFSET;
+import static com.hmdp.utils.SystemConstants.MAX_PAGE_SIZE;
 
 /**
  * <p>
@@ -36,12 +48,38 @@ import static com.hmdp.utils.RedisConstants.*;
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private ShopMapper shopMapper;
 
     @Resource
-    private ShopMapper shopMapper;
+    private CacheClient cacheClient;
+
+    @Resource
+    private RedisBloomFilter shopBloomFilter;
 
-    private final static ExecutorService threadPool = Executors.newFixedThreadPool(10);
+    @Resource
+    private ICacheOutboxService cacheOutboxService;
+
+    @Resource
+    private ShopGeoIndex shopGeoIndex;
+
+    @Resource
+    private ShopGridIndex shopGridIndex;
+
+    @Resource
+    private ShopNameIndex shopNameIndex;
+
+    @Override
+    public Result saveShop(Shop shop) {
+        // 写入数据库
+        save(shop);
+        // 加入布隆过滤器
+        shopBloomFilter.put(shop.getId());
+        // 加入GEO索引
+        shopGeoIndex.add(shop);
+        shopGridIndex.add(shop);
+        shopNameIndex.put(shop);
+        return Result.ok(shop.getId());
+    }
 
     @Override
     @Transactional
@@ -49,198 +87,179 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         if(shop.getId() == null) {
             return Result.fail("商户id为空");
         }
+        // 更新前的数据，用于同步各个索引
+        Shop old = shopMapper.selectById(shop.getId());
         // 更新数据库
         shopMapper.updateById(shop);
-        // 删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + shop.getId());
+        // 同一个事务里记录缓存失效消息，提交后再删除缓存
+        cacheOutboxService.addInvalidation(CACHE_SHOP_KEY + shop.getId());
+        if (old != null) {
+            Long oldTypeId = old.getTypeId();
+            Shop updated = BeanUtil.copyProperties(old, Shop.class);
+            BeanUtil.copyProperties(shop, updated, CopyOptions.create().ignoreNullValue());
+            afterCommit(() -> {
+                shopGeoIndex.update(oldTypeId, updated);
+                shopGridIndex.update(oldTypeId, updated);
+                shopNameIndex.put(updated);
+            });
+        }
         return Result.ok();
     }
 
     @Override
     public Result queryById(Long id) {
-        // 缓存穿透
-        // Shop shop = queryThoughCache(id);
-        // 缓存击穿 互斥锁
-        // Shop shop = queryWithMutex(id);
+        // 布隆过滤器拦截不存在的id
+        if(!shopBloomFilter.mightContain(id)) {
+            return Result.fail("不存在");
+        }
         // 缓存击穿 逻辑过期
-        Shop shop = queryWithLogicalExpire(id);
+        Shop shop = cacheClient.query(CACHE_SHOP_KEY, id, Shop.class, shopMapper::selectById, CACHE_SHOP_TTL,
+            TimeUnit.MINUTES, CacheStrategy.LOGICAL_EXPIRE);
         if(shop == null) {
             return Result.fail("不存在");
         }
         return Result.ok(shop);
     }
 
-    /**
-     * 缓存穿透
-     *
-     * @param id
-     * @return
-     */
-    public Shop queryThoughCache(Long id) {
-        String shopKey = CACHE_SHOP_KEY + id;
-        // 查询商户缓存
-        Map<Object, Object> shopMap = stringRedisTemplate.opsForHash().entries(shopKey);
-        // 命中缓存
-        if(!shopMap.isEmpty()) {
-            if(shopMap.get("isNull").equals("true")) {
-                return null;
-            }
-            return BeanUtil.fillBeanWithMap(shopMap, new Shop(), false);
-        }
-        // 没缓存，查库
-        Shop shop = shopMapper.selectById(id);
-        if(shop == null) {
-            stringRedisTemplate.opsForHash().put(shopKey, "isNull", "true");
-            stringRedisTemplate.opsForHash().getOperations().expire(shopKey, CACHE_NULL_TTL, TimeUnit.MINUTES);
-            return null;
+    @Override
+    public Result queryByIds(List<Long> ids) {
+        if(ids.size() > MAX_BATCH_SIZE) {
+            return Result.fail("一次最多查询" + MAX_BATCH_SIZE + "个商户");
         }
-
-        // 更新缓存
-        Map<String, Object> shopMapNew =
-            BeanUtil.beanToMap(shop, new HashMap<>(), CopyOptions.create().setIgnoreNullValue(true)
-                .setFieldValueEditor((fieldName, fieldValue) -> fieldValue == null ? "" : fieldValue.toString()));
-        stringRedisTemplate.opsForHash().putAll(shopKey, shopMapNew);
-        stringRedisTemplate.opsForHash().getOperations().expire(shopKey, CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        return BeanUtil.fillBeanWithMap(shopMap, new Shop(), false);
+        // 布隆过滤器拦截不存在的id
+        List<Long> existIds = ids.stream().filter(shopBloomFilter::mightContain).collect(Collectors.toList());
+        List<Shop> shops = cacheClient.queryBatch(CACHE_SHOP_KEY, existIds, Shop.class, this::listByIds, Shop::getId,
+            CACHE_SHOP_TTL, TimeUnit.MINUTES, CacheStrategy.LOGICAL_EXPIRE);
+        return Result.ok(shops);
     }
 
-    /**
-     * 缓存击穿 互斥锁的实现方式
-     *
-     * @param id
-     * @return
-     */
-    public Shop queryWithMutex(Long id) {
-        String shopKey = CACHE_SHOP_KEY + id;
-        // 查询商户缓存
-        Map<Object, Object> shopMap = stringRedisTemplate.opsForHash().entries(shopKey);
-        // 命中缓存
-        if(!shopMap.isEmpty()) {
-            if(shopMap.get("isNull") != null && shopMap.get("isNull").equals("true")) {
-                return null;
+    @Override
+    public Result queryShopByType(Integer typeId, String cursor, Double x, Double y) {
+        PageCursor pageCursor;
+        try {
+            pageCursor = PageCursor.decode(cursor);
+        } catch (IllegalArgumentException e) {
+            return Result.fail("无效的游标");
+        }
+        // 带坐标时按距离排序，优先用进程内的网格索引，索引还没加载时退回数据库分页
+        if (x != null && y != null) {
+            // 距离没法作为查询条件，游标的排序值记录已经返回的条数
+            PageCursor distanceCursor = PageCursor.orderedBy(pageCursor, PageCursor.ORDER_DISTANCE);
+            long offset = distanceCursor == null ? 0 : distanceCursor.getSortKey();
+            // 游标来自客户端，越界的偏移量会让GEOSEARCH一次返回大量数据
+            if (offset < 0 || offset > MAX_DISTANCE_OFFSET) {
+                return Result.fail("无效的游标");
+            }
+            int from = (int) offset;
+            int end = from + DEFAULT_PAGE_SIZE + 1;
+            Map<Long, Double> distances = shopGridIndex.isReady()
+                ? shopGridIndex.page(typeId.longValue(), x, y, from, end)
+                : shopGeoIndex.search(typeId.longValue(), x, y, from, end);
+            if (distances != null) {
+                return queryShopByDistance(distances, from);
             }
-            return BeanUtil.fillBeanWithMap(shopMap, new Shop(), false);
         }
-        // 没缓存，查库
-        // 获取锁
-        String lockKey = LOCK_SHOP_KEY + id;
+        // 按id顺序翻页，走type_id索引，按距离翻页的游标不能接着用
+        pageCursor = PageCursor.orderedBy(pageCursor, PageCursor.ORDER_ID);
+        long lastId = pageCursor == null ? 0 : pageCursor.getId();
+        List<Shop> shops = query().eq("type_id", typeId).gt("id", lastId)
+            .orderByAsc("id").last("LIMIT " + (DEFAULT_PAGE_SIZE + 1)).list();
+        return Result.ok(toCursorResult(shops, DEFAULT_PAGE_SIZE));
+    }
+
+    @Override
+    public Result queryShopByName(String name, String cursor) {
+        PageCursor pageCursor;
         try {
-            if(tryLock(lockKey)) {
-                // 获取锁成功
-                // 查库
-                Shop shop = shopMapper.selectById(id);
-                // 模拟延迟
-                Thread.sleep(100);
-                if(shop == null) {
-                    stringRedisTemplate.opsForHash().put(shopKey, "isNull", "true");
-                    stringRedisTemplate.opsForHash().getOperations().expire(shopKey, CACHE_NULL_TTL, TimeUnit.MINUTES);
-                    return null;
-                }
-                // 更新缓存
-                Map<String,
-                    Object> shopMapNew = BeanUtil.beanToMap(shop, new HashMap<>(),
-                    CopyOptions.create().setIgnoreNullValue(true).setFieldValueEditor(
-                        (fieldName, fieldValue) -> fieldValue == null ? "" : fieldValue.toString()));
-                stringRedisTemplate.opsForHash().putAll(shopKey, shopMapNew);
-                stringRedisTemplate.opsForHash().getOperations().expire(shopKey, CACHE_SHOP_TTL, TimeUnit.MINUTES);
-                return BeanUtil.fillBeanWithMap(shopMap, new Shop(), false);
-            } else {
-                // 已经有线程在更新缓存了
-                // 等待
-                Thread.sleep(50);
-                // 重试
-                return queryWithMutex(id);
-            }
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        } finally {
-            // 释放锁
-            delLock(lockKey);
+            pageCursor = PageCursor.decode(cursor);
+        } catch (IllegalArgumentException e) {
+            return Result.fail("无效的游标");
         }
+        // 优先走倒排索引，按评分、销量排序
+        if (shopNameIndex.isReady()) {
+            ShopNameIndex.SearchResult hits = shopNameIndex.search(name,
+                PageCursor.orderedBy(pageCursor, PageCursor.ORDER_NAME_RANK), MAX_PAGE_SIZE);
+            List<Shop> shops = cacheClient.queryBatch(CACHE_SHOP_KEY, hits.getIds(), Shop.class, this::listByIds,
+                Shop::getId, CACHE_SHOP_TTL, TimeUnit.MINUTES, CacheStrategy.LOGICAL_EXPIRE);
+            return Result.ok(new CursorResult(shops, hits.getNext() == null ? null : hits.getNext().encode()));
+        }
+        // 索引还没加载好，按id顺序查库
+        pageCursor = PageCursor.orderedBy(pageCursor, PageCursor.ORDER_ID);
+        long lastId = pageCursor == null ? 0 : pageCursor.getId();
+        List<Shop> shops = query().like(StrUtil.isNotBlank(name), "name", name).gt("id", lastId)
+            .orderByAsc("id").last("LIMIT " + (MAX_PAGE_SIZE + 1)).list();
+        return Result.ok(toCursorResult(shops, MAX_PAGE_SIZE));
+    }
 
+    @Override
+    public Result suggestShopName(String prefix) {
+        if (StrUtil.isBlank(prefix)) {
+            return Result.ok(Collections.emptyList());
+        }
+        if (shopNameIndex.isReady()) {
+            return Result.ok(shopNameIndex.suggest(prefix, DEFAULT_PAGE_SIZE));
+        }
+        List<Object> names = baseMapper.selectObjs(new QueryWrapper<Shop>().select("DISTINCT name")
+            .likeRight("name", prefix).last("LIMIT " + DEFAULT_PAGE_SIZE));
+        return Result.ok(names);
     }
 
     /**
-     * 缓存击穿 逻辑过期的实现方式
-     * 数据得提前写入redis
-     *
-     * @param id
-     * @return
+     * 按距离排好序的商铺id批量查询详情，多查一条用来判断是否还有下一页
      */
-    public Shop queryWithLogicalExpire(Long id) {
-        String shopKey = CACHE_SHOP_KEY + id;
-        // 查询商户缓存
-        Map<Object, Object> shopMap = stringRedisTemplate.opsForHash().entries(shopKey);
-        // 不存在
-        if(shopMap.isEmpty()) {
-            return null;
-        }
-        // 命中缓存
-        RedisData<Shop> redisData = BeanUtil.fillBeanWithMap(shopMap, new RedisData<>(), false);
-        Shop shop = JSONUtil.toBean((String) shopMap.get("data"), Shop.class);
-        LocalDateTime expire = redisData.getExpireTime();
-
-        // 没过期
-        if(expire.isAfter(LocalDateTime.now())) {
-            System.out.println("没过期");
-            return shop;
-        }
-        // 过期了
-        String lockKey = LOCK_SHOP_KEY + id;
-        boolean b = tryLock(lockKey);
-        // 获取锁成功，开启独立线跟新缓存
-        if(b) {
-            ShopServiceImpl.threadPool.submit(() -> {
-                try {
-                    saveShopDb2Redis(id, 20L);
-                } catch (InterruptedException e) {
-                    throw new RuntimeException(e);
-                } finally {
-                    delLock(lockKey);
-                }
-            });
+    private Result queryShopByDistance(Map<Long, Double> distances, int from) {
+        if (distances.isEmpty()) {
+            return Result.ok(new CursorResult(Collections.emptyList(), null));
         }
-
-        // 获取锁失败，返回过期数据
-        return shop;
+        List<Long> ids = distances.keySet().stream().limit(DEFAULT_PAGE_SIZE).collect(Collectors.toList());
+        // 一次批量查询详情
+        List<Shop> shops = cacheClient.queryBatch(CACHE_SHOP_KEY, ids, Shop.class, this::listByIds,
+            Shop::getId, CACHE_SHOP_TTL, TimeUnit.MINUTES, CacheStrategy.LOGICAL_EXPIRE);
+        // 本地缓存里的对象是共享的，复制一份再设置距离
+        List<Shop> result = shops.stream()
+            .map(shop -> BeanUtil.copyProperties(shop, Shop.class).setDistance(distances.get(shop.getId())))
+            .collect(Collectors.toList());
+        String next = distances.size() > DEFAULT_PAGE_SIZE
+            ? PageCursor.of(PageCursor.ORDER_DISTANCE, from + DEFAULT_PAGE_SIZE, ids.get(ids.size() - 1)).encode()
+            : null;
+        return Result.ok(new CursorResult(result, next));
     }
 
     /**
-     * 将查询出来的shop数据组装成redisdata，存入redis，逻辑过期
-     *
-     * @param id
-     * @param expire
+     * 查询时多查了一条，查到了说明还有下一页
      */
-    public void saveShopDb2Redis(Long id, Long expire) throws InterruptedException {
-        String shopKey = CACHE_SHOP_KEY + id;
-        Shop shop = shopMapper.selectById(id);
-        Thread.sleep(200);
-        RedisData<Shop> redisData = new RedisData<>();
-        redisData.setData(shop);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(expire));
-        HashMap<Object, Object> objectObjectHashMap = new HashMap<>();
-        objectObjectHashMap.put("expireTime", redisData.getExpireTime().toString());
-        objectObjectHashMap.put("data", JSONUtil.toJsonStr(redisData.getData()));
-        stringRedisTemplate.opsForHash().putAll(shopKey, objectObjectHashMap);
+    private static CursorResult toCursorResult(List<Shop> shops, int pageSize) {
+        if (shops.size() <= pageSize) {
+            return new CursorResult(shops, null);
+        }
+        List<Shop> page = shops.subList(0, pageSize);
+        return new CursorResult(page, PageCursor.of(page.get(pageSize - 1).getId()).encode());
     }
 
     /**
-     * 获取锁
-     *
-     * @param key
-     * @return
+     * 事务提交后执行，没有事务时立即执行
      */
-    public boolean tryLock(String key) {
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
     }
 
     /**
-     * 释放锁
+     * 将查询出来的shop数据存入redis，逻辑过期
      *
-     * @param key
+     * @param id
+     * @param expire 逻辑过期秒数
      */
-    public void delLock(String key) {
-        stringRedisTemplate.delete(key);
+    public void saveShopDb2Redis(Long id, Long expire) {
+        Shop shop = shopMapper.selectById(id);
+        cacheClient.setWithLogicalExpire(CACHE_SHOP_KEY + id, shop, expire, TimeUnit.SECONDS);
     }
 }
@@ -2,60 +2,234 @@ package com.hmdp.service.impl;
 
 import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_KEY;
 import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_TTL;
+import static com.hmdp.utils.RedisConstants.LOCK_CACHE_KEY;
 
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import javax.annotation.Resource;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.ILock;
+import com.hmdp.utils.RedisLockClient;
 
-import cn.hutool.json.JSONUtil;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 
 /**
  * <p>
  * 服务实现类
  * </p>
+ * 商铺类型几乎不变，整个列表作为一个带版本号的不可变快照放在内存里
+ * redis里 list 存 {版本号, 列表}，先写临时key再RENAME，整体替换是原子的；version 存当前版本号，带过期时间
+ * 各节点定时读版本号，变了才重新加载；版本号过期后由抢到锁的节点查库重建，内容没变时版本号不变
+ * <p>
+ * 读请求只读内存快照，不会因为过期一起查库；版本号的过期时间加随机抖动，并且在过期前提前重建，
+ * 各节点不会在同一时刻发现版本号不存在
  *
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
+    private static final String LIST_KEY = CACHE_SHOP_TYPE_KEY + "list";
+    private static final String VERSION_KEY = CACHE_SHOP_TYPE_KEY + "version";
+    private static final String SEQUENCE_KEY = CACHE_SHOP_TYPE_KEY + "seq";
+    private static final String LOCK_KEY = LOCK_CACHE_KEY + CACHE_SHOP_TYPE_KEY;
+    private static final long SYNC_INTERVAL_MILLIS = 10000;
+    /**
+     * redis里还没有快照时，直接查库得到的临时快照在本地保留多久
+     */
+    private static final long FALLBACK_TTL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    @Resource
+    private ShopTypeMapper shopTypeMapper;
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
     @Resource
-    private ShopTypeMapper shopTypeMapper;
+    private ObjectMapper objectMapper;
+
+    @Resource
+    private RedisLockClient redisLockClient;
+
+    /**
+     * 过期时间的随机抖动比例，和缓存客户端使用同一个配置
+     */
+    @Value("${hmdp.cache.ttl-jitter:0.1}")
+    private double ttlJitter;
+
+    private volatile ShopTypeSnapshot snapshot;
+
+    /**
+     * redis不可用或者其他节点正在重建时的临时快照，过期前所有请求共用
+     */
+    private volatile ShopTypeSnapshot fallback;
+
+    private volatile long fallbackExpireNanos;
 
     @Override
     public Result queryShopTypeList() {
-        Long size = stringRedisTemplate.opsForList().size(CACHE_SHOP_TYPE_KEY);
-        // 命中缓存
-        if (size != 0) {
-            List<String> typeList = stringRedisTemplate.opsForList().range(CACHE_SHOP_TYPE_KEY, 0, -1);
-            List<ShopType> shopTypeList =
-                typeList.stream().map(item -> JSONUtil.toBean(item, ShopType.class)).collect(Collectors.toList());
-            return Result.ok(shopTypeList);
-        }
-        // 查库
-        List<ShopType> orderShopTypeList = shopTypeMapper.selectList(new QueryWrapper<>()).stream()
+        return Result.ok(getSnapshot().getTypes());
+    }
+
+    @Override
+    public ShopTypeSnapshot getSnapshot() {
+        ShopTypeSnapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        ShopTypeSnapshot temporary = fallback;
+        if (temporary != null && System.nanoTime() - fallbackExpireNanos < 0) {
+            return temporary;
+        }
+        synchronized (this) {
+            if (snapshot != null) {
+                return snapshot;
+            }
+            if (fallback != null && System.nanoTime() - fallbackExpireNanos < 0) {
+                return fallback;
+            }
+            // 每个临时快照的有效期内只尝试一次redis，失败后查库
+            sync();
+            if (snapshot != null) {
+                return snapshot;
+            }
+            fallback = createSnapshot(0, loadSortedTypes());
+            fallbackExpireNanos = System.nanoTime() + FALLBACK_TTL_NANOS;
+            return fallback;
+        }
+    }
+
+    /**
+     * 定时检查版本号
+     */
+    @Scheduled(initialDelay = SYNC_INTERVAL_MILLIS, fixedDelay = SYNC_INTERVAL_MILLIS)
+    public void sync() {
+        try {
+            String version = stringRedisTemplate.opsForValue().get(VERSION_KEY);
+            if (version == null) {
+                rebuild();
+                return;
+            }
+            // 下一次检查前就会过期，提前重建
+            Long ttl = stringRedisTemplate.getExpire(VERSION_KEY, TimeUnit.MILLISECONDS);
+            if (ttl != null && ttl >= 0 && ttl < 2 * SYNC_INTERVAL_MILLIS) {
+                rebuild();
+                return;
+            }
+            ShopTypeSnapshot current = snapshot;
+            if (current == null || current.getVersion() != Long.parseLong(version)) {
+                load();
+            }
+        } catch (Exception e) {
+            log.error("同步商铺类型失败", e);
+        }
+    }
+
+    /**
+     * 从redis加载
+     */
+    private void load() throws JsonProcessingException {
+        String json = stringRedisTemplate.opsForValue().get(LIST_KEY);
+        if (json == null) {
+            return;
+        }
+        StoredTypes stored = objectMapper.readValue(json, StoredTypes.class);
+        ShopTypeSnapshot current = snapshot;
+        if (current == null || stored.getVersion() > current.getVersion()) {
+            snapshot = createSnapshot(stored.getVersion(), stored.getTypes());
+        }
+    }
+
+    /**
+     * 查库重建，只有抢到锁的节点执行
+     */
+    private void rebuild() throws JsonProcessingException {
+        ILock lock = redisLockClient.getLock(LOCK_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            load();
+            List<ShopType> types = loadSortedTypes();
+            ShopTypeSnapshot current = snapshot;
+            long version;
+            if (current != null && objectMapper.writeValueAsString(current.getTypes())
+                .equals(objectMapper.writeValueAsString(types))) {
+                // 内容没变，版本号不变，客户端的ETag继续有效
+                version = current.getVersion();
+            } else {
+                version = stringRedisTemplate.opsForValue().increment(SEQUENCE_KEY);
+                String tempKey = LIST_KEY + ":" + UUID.randomUUID();
+                stringRedisTemplate.opsForValue().set(tempKey,
+                    objectMapper.writeValueAsString(new StoredTypes(version, types)));
+                stringRedisTemplate.rename(tempKey, LIST_KEY);
+                snapshot = createSnapshot(version, types);
+            }
+            stringRedisTemplate.opsForValue().set(VERSION_KEY, String.valueOf(version), versionTtlMillis(),
+                TimeUnit.MILLISECONDS);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 版本号的过期时间加上随机抖动
+     */
+    private long versionTtlMillis() {
+        long ttl = TimeUnit.MINUTES.toMillis(CACHE_SHOP_TYPE_TTL);
+        if (ttlJitter <= 0) {
+            return ttl;
+        }
+        return (long) (ttl * (1 + ThreadLocalRandom.current().nextDouble(-ttlJitter, ttlJitter)));
+    }
+
+    private ShopTypeSnapshot createSnapshot(long version, List<ShopType> types) {
+        List<ShopType> immutableTypes = Collections.unmodifiableList(types);
+        try {
+            byte[] body = objectMapper.writeValueAsBytes(Result.ok(immutableTypes));
+            return new ShopTypeSnapshot(version, immutableTypes, body);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("序列化商铺类型失败", e);
+        }
+    }
+
+    private List<ShopType> loadSortedTypes() {
+        return shopTypeMapper.selectList(new QueryWrapper<>()).stream()
             .sorted(Comparator.comparing(ShopType::getSort)).collect(Collectors.toList());
-        // 更新缓存
-        stringRedisTemplate.opsForList().rightPushAll(CACHE_SHOP_TYPE_KEY,
-            orderShopTypeList.stream().map(JSONUtil::toJsonStr).collect(Collectors.toList()));
-        stringRedisTemplate.opsForList().getOperations().expire(CACHE_SHOP_TYPE_KEY, CACHE_SHOP_TYPE_TTL,
-            TimeUnit.MINUTES);
-        return Result.ok(orderShopTypeList);
+    }
+
+    /**
+     * redis里保存的内容，版本号和列表放在同一个值里，一起替换
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    private static class StoredTypes {
+        private long version;
+        private List<ShopType> types;
     }
 }
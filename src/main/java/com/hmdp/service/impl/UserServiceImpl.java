@@ -13,6 +13,7 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.RedisBloomFilter;
 import com.hmdp.utils.RegexUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -46,6 +47,9 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private RedisBloomFilter userBloomFilter;
+
     @Override
     public Result sendCode(String phone, HttpSession session) {
         // 1. 校验手机号
@@ -106,6 +110,8 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         if (insert != 1) {
             return null;
         }
+        // 加入布隆过滤器
+        userBloomFilter.put(user.getId());
         return user;
     }
 }
@@ -1,20 +1,676 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.date.LocalDateTimeUtil;
+import cn.hutool.core.thread.NamedThreadFactory;
+import cn.hutool.core.util.RuntimeUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
+import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.ILock;
+import com.hmdp.utils.RedisBloomFilter;
+import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.RedisLockClient;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.LOCK_SECKILL_RECOVER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STREAM_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_TIME_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_UNPAID_INFO_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_UNPAID_KEY;
+import static com.hmdp.utils.SystemConstants.ORDER_STATUS_CANCELLED;
+import static com.hmdp.utils.SystemConstants.ORDER_STATUS_UNPAID;
 
 /**
  * <p>
  *  服务实现类
  * </p>
+ * 秒杀下单在redis里用lua脚本原子地完成资格校验、扣库存和写入订单消息，请求线程不访问数据库
+ * <p>
+ * 后台线程以消费者组的方式批量读取订单消息：过滤掉已经写入过的订单，批量插入订单，
+ * 每个优惠券只执行一次扣库存，事务提交后再ACK。没有ACK的消息留在pending list里，
+ * 启动时和出错后先重新处理自己的pending list，其他消费者长时间没确认的消息定时转给自己
+ * <p>
+ * 下单脚本同时把订单放进待支付队列（zset，score是支付截止时间）。各节点定时用lua脚本领取到期的订单，
+ * 领取时把score改成租期结束时间，节点宕机后租期一过订单重新到期。数据库里 未支付 -> 已取消 的状态变更
+ * 和归还库存在一个事务里，提交后归还redis库存并移出队列
  *
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
 
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    private static final DefaultRedisScript<Long> ROLLBACK_SCRIPT;
+    private static final DefaultRedisScript<Long> CANCEL_SCRIPT;
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> CLAIM_SCRIPT;
+    private static final String[] SECKILL_ERRORS = {null, "秒杀活动不存在", "秒杀尚未开始", "秒杀已经结束", "库存不足", "不能重复下单"};
+
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
+        SECKILL_SCRIPT.setResultType(Long.class);
+        ROLLBACK_SCRIPT = new DefaultRedisScript<>();
+        ROLLBACK_SCRIPT.setLocation(new ClassPathResource("seckill_rollback.lua"));
+        ROLLBACK_SCRIPT.setResultType(Long.class);
+        CANCEL_SCRIPT = new DefaultRedisScript<>();
+        CANCEL_SCRIPT.setLocation(new ClassPathResource("seckill_cancel.lua"));
+        CANCEL_SCRIPT.setResultType(Long.class);
+        CLAIM_SCRIPT = new DefaultRedisScript<>();
+        CLAIM_SCRIPT.setLocation(new ClassPathResource("delay_queue_claim.lua"));
+        CLAIM_SCRIPT.setResultType(List.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${hmdp.seckill.consumer-group:g1}")
+    private String consumerGroup;
+
+    /**
+     * 固定的消费者名称，例如StatefulSet的pod名，为空时用 主机名-pid
+     */
+    @Value("${hmdp.seckill.consumer-name:}")
+    private String configuredConsumerName;
+
+    @Value("${hmdp.seckill.batch-size:200}")
+    private int batchSize;
+
+    @Value("${hmdp.seckill.block:2s}")
+    private Duration block;
+
+    @Value("${hmdp.seckill.claim-idle:60s}")
+    private Duration claimIdle;
+
+    @Value("${hmdp.seckill.max-deliveries:5}")
+    private int maxDeliveries;
+
+    @Value("${hmdp.seckill.pay-timeout:15m}")
+    private Duration payTimeout;
+
+    @Value("${hmdp.seckill.cancel-lease:60s}")
+    private Duration cancelLease;
+
+    @Value("${hmdp.seckill.retention:1h}")
+    private Duration retention;
+
+    @Resource
+    private RedisIdWorker redisIdWorker;
+
+    @Resource
+    private RedisLockClient redisLockClient;
+
+    @Resource
+    private RedisBloomFilter voucherBloomFilter;
+
+    private final ExecutorService orderConsumer =
+        Executors.newSingleThreadExecutor(new NamedThreadFactory("seckill-order-consumer-", true));
+
+    /**
+     * 消费者名称，同一个消费者组里不能重复。同一台机器上的多个进程、主机名相同的多个容器用pid区分，
+     * 重启后名称会变，旧名称下没确认的消息超过claim-idle后由recover转给别的消费者
+     */
+    private String consumerName;
+
+    private volatile boolean running = true;
+
+    /**
+     * 下次读取是否先处理pending list
+     */
+    private volatile boolean readPending = true;
+
+    /**
+     * 本进程内每条消息处理失败的次数
+     */
+    private final Map<RecordId, Integer> failures = new ConcurrentHashMap<>();
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder consumed = new LongAdder();
+    private final LongAdder inserted = new LongAdder();
+    private final LongAdder duplicated = new LongAdder();
+    private final LongAdder rolledBack = new LongAdder();
+    private final LongAdder failedBatches = new LongAdder();
+    private final LongAdder claimed = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final LongAdder cancelSkipped = new LongAdder();
+    private final LongAdder lost = new LongAdder();
+    private final LongAdder insertNanos = new LongAdder();
+    private final AtomicLong maxBatchSize = new AtomicLong();
+    private final AtomicLong maxInsertNanos = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        if (StrUtil.isNotBlank(configuredConsumerName)) {
+            consumerName = configuredConsumerName;
+        } else {
+            String host;
+            try {
+                host = InetAddress.getLocalHost().getHostName();
+            } catch (Exception e) {
+                host = "consumer";
+            }
+            consumerName = host + "-" + RuntimeUtil.getPid();
+        }
+        log.info("秒杀订单消费者名称: {}", consumerName);
+        orderConsumer.execute(this::consumeOrders);
+    }
+
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        running = false;
+        orderConsumer.shutdown();
+        if (!orderConsumer.awaitTermination(block.toMillis() + 10000, TimeUnit.MILLISECONDS)) {
+            log.error("秒杀订单消费线程没有及时退出, 未确认的消息下次启动时处理");
+        }
+    }
+
+    @Override
+    public Result seckillVoucher(Long voucherId) {
+        // 布隆过滤器拦截不存在的优惠券，只查本地副本，不访问redis
+        if (!voucherBloomFilter.mightContain(voucherId)) {
+            return Result.fail(SECKILL_ERRORS[1]);
+        }
+        Long userId = UserHolder.getUser().getId();
+        long orderId = redisIdWorker.nextId("order");
+        // 校验时间、扣库存、一人一单，成功后写入订单消息
+        Long code = stringRedisTemplate.execute(SECKILL_SCRIPT,
+            Arrays.asList(SECKILL_STOCK_KEY + voucherId, SECKILL_TIME_KEY + voucherId, SECKILL_ORDER_KEY + voucherId,
+                SECKILL_STREAM_KEY, SECKILL_UNPAID_KEY, SECKILL_UNPAID_INFO_KEY),
+            userId.toString(), voucherId.toString(), String.valueOf(orderId), String.valueOf(payTimeout.toMillis()));
+        if (code == null || code != 0) {
+            return Result.fail(code == null ? "下单失败" : SECKILL_ERRORS[code.intValue()]);
+        }
+        return Result.ok(orderId);
+    }
+
+    /**
+     * 后台线程：按批读取订单消息写入数据库
+     */
+    private void consumeOrders() {
+        boolean groupCreated = false;
+        int errors = 0;
+        while (running) {
+            try {
+                if (!groupCreated) {
+                    createGroup();
+                    groupCreated = true;
+                }
+                boolean pending = readPending;
+                // 只传了一个StreamOffset，泛型可变参数是安全的
+                @SuppressWarnings("unchecked")
+                List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(
+                    Consumer.from(consumerGroup, consumerName),
+                    pending ? StreamReadOptions.empty().count(batchSize)
+                        : StreamReadOptions.empty().count(batchSize).block(block),
+                    StreamOffset.create(SECKILL_STREAM_KEY, pending ? ReadOffset.from("0") : ReadOffset.lastConsumed()));
+                if (records == null || records.isEmpty()) {
+                    // pending list处理完了，开始读新消息
+                    readPending = false;
+                    continue;
+                }
+                handleBatch(records);
+                errors = 0;
+            } catch (Exception e) {
+                log.error("处理秒杀订单消息失败", e);
+                failedBatches.increment();
+                // stream可能被删除了，重新创建消费者组
+                groupCreated = false;
+                // 没有ACK的消息还在pending list里，稍后重新处理
+                readPending = true;
+                sleepQuietly(Math.min(1000L << Math.min(errors++, 5), 30000L));
+            }
+        }
+    }
+
+    private void createGroup() {
+        byte[] key = SECKILL_STREAM_KEY.getBytes(StandardCharsets.UTF_8);
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection ->
+                connection.streamCommands().xGroupCreate(key, consumerGroup, ReadOffset.from("0"), true));
+        } catch (Exception e) {
+            // 消费者组已经存在
+            if (!StrUtil.contains(String.valueOf(e.getMessage()), "BUSYGROUP")
+                && !StrUtil.contains(String.valueOf(e.getCause()), "BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 一批订单在一个事务里写入，提交后ACK
+     */
+    private void handleBatch(List<MapRecord<String, Object, Object>> records) {
+        long start = System.nanoTime();
+        Map<Long, RecordId> recordIds = new LinkedHashMap<>();
+        List<RecordId> allIds = new ArrayList<>(records.size());
+        List<VoucherOrder> orders = new ArrayList<>(records.size());
+        for (MapRecord<String, Object, Object> record : records) {
+            allIds.add(record.getId());
+            VoucherOrder order = BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true);
+            if (order.getId() == null || order.getUserId() == null || order.getVoucherId() == null) {
+                log.error("秒杀订单消息{}格式错误: {}", record.getId(), record.getValue());
+                continue;
+            }
+            if (recordIds.putIfAbsent(order.getId(), record.getId()) == null) {
+                // 下单时间取消息写入stream的时间
+                orders.add(order.setCreateTime(LocalDateTimeUtil.of(record.getId().getTimestamp())));
+            }
+        }
+        List<VoucherOrder> rejected = new ArrayList<>();
+        try {
+            transactionTemplate.executeWithoutResult(status -> rejected.addAll(persist(orders)));
+        } catch (RuntimeException e) {
+            // 数据库不可用时一直重试，不计入失败次数
+            if (e instanceof CannotCreateTransactionException || e instanceof TransientDataAccessException
+                || e instanceof RecoverableDataAccessException) {
+                throw e;
+            }
+            // 逐条重新写入，避免一条有问题的消息拖累整批
+            if (records.size() > 1) {
+                log.error("批量写入秒杀订单失败, 逐条重试", e);
+                for (MapRecord<String, Object, Object> record : records) {
+                    try {
+                        handleBatch(Collections.singletonList(record));
+                    } catch (RuntimeException single) {
+                        log.error("写入秒杀订单消息{}失败", record.getId(), single);
+                        readPending = true;
+                    }
+                }
+                return;
+            }
+            // 多次失败的消息不再重试，撤销订单后ACK，避免一直阻塞pending list
+            List<RecordId> poisoned = new ArrayList<>();
+            for (VoucherOrder order : orders) {
+                RecordId id = recordIds.get(order.getId());
+                if (failures.merge(id, 1, Integer::sum) >= maxDeliveries) {
+                    log.error("秒杀订单{}处理失败{}次, 撤销订单", order.getId(), maxDeliveries);
+                    rollback(order);
+                    poisoned.add(id);
+                }
+            }
+            acknowledge(poisoned);
+            throw e;
+        }
+        rejected.forEach(this::rollback);
+        acknowledge(allIds);
+        allIds.forEach(failures::remove);
+        recordMetrics(records.size(), System.nanoTime() - start);
+    }
+
+    /**
+     * 写入一批订单
+     *
+     * @return 数据库库存不足、需要撤销的订单
+     */
+    private List<VoucherOrder> persist(List<VoucherOrder> orders) {
+        if (orders.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // 重新处理的消息可能已经写入过了
+        Set<Long> existing = listByIds(orders.stream().map(VoucherOrder::getId).collect(Collectors.toList()))
+            .stream().map(VoucherOrder::getId).collect(Collectors.toSet());
+        duplicated.add(existing.size());
+        Map<Long, List<VoucherOrder>> byVoucher = orders.stream().filter(order -> !existing.contains(order.getId()))
+            .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, LinkedHashMap::new, Collectors.toList()));
+        List<VoucherOrder> accepted = new ArrayList<>();
+        List<VoucherOrder> rejected = new ArrayList<>();
+        // 每个优惠券只扣一次库存
+        byVoucher.forEach((voucherId, voucherOrders) -> {
+            int count = voucherOrders.size();
+            boolean deducted = seckillVoucherService.update()
+                .setSql("stock = stock - " + count)
+                .eq("voucher_id", voucherId)
+                .ge("stock", count)
+                .update();
+            if (deducted) {
+                accepted.addAll(voucherOrders);
+            } else {
+                log.error("优惠券{}数据库库存不足{}, 撤销这批订单", voucherId, count);
+                rejected.addAll(voucherOrders);
+            }
+        });
+        if (!accepted.isEmpty()) {
+            saveBatch(accepted, batchSize);
+            inserted.add(accepted.size());
+        }
+        return rejected;
+    }
+
+    private void acknowledge(List<RecordId> ids) {
+        if (!ids.isEmpty()) {
+            stringRedisTemplate.opsForStream().acknowledge(SECKILL_STREAM_KEY, consumerGroup,
+                ids.toArray(new RecordId[0]));
+        }
+    }
+
+    /**
+     * 其他消费者（比如已经下线的节点）长时间没确认的消息转给自己，并清理已经确认过的消息
+     */
+    @Scheduled(initialDelay = 30000, fixedDelay = 30000)
+    public void recover() {
+        // 同一时间只有一个节点认领和清理
+        ILock lock = redisLockClient.getLock(LOCK_SECKILL_RECOVER_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            PendingMessages pending = stringRedisTemplate.opsForStream().pending(SECKILL_STREAM_KEY, consumerGroup,
+                Range.unbounded(), batchSize);
+            List<RecordId> idle = new ArrayList<>();
+            for (PendingMessage message : pending) {
+                if (!consumerName.equals(message.getConsumerName())
+                    && message.getElapsedTimeSinceLastDelivery().compareTo(claimIdle) >= 0) {
+                    idle.add(message.getId());
+                }
+            }
+            if (!idle.isEmpty()) {
+                stringRedisTemplate.opsForStream().claim(SECKILL_STREAM_KEY, consumerGroup, consumerName, claimIdle,
+                    idle.toArray(new RecordId[0]));
+                claimed.add(idle.size());
+                readPending = true;
+            }
+            trim();
+        } catch (Exception e) {
+            log.error("恢复秒杀订单消息失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 删除所有消费者都已经确认过的消息
+     */
+    private void trim() {
+        PendingMessagesSummary summary = stringRedisTemplate.opsForStream().pending(SECKILL_STREAM_KEY, consumerGroup);
+        String minId = null;
+        if (summary != null && summary.getTotalPendingMessages() > 0) {
+            minId = summary.minMessageId();
+        } else {
+            StreamInfo.XInfoGroup group = findGroup();
+            minId = group == null ? null : group.lastDeliveredId();
+        }
+        if (minId == null || "0-0".equals(minId)) {
+            return;
+        }
+        byte[][] args = {SECKILL_STREAM_KEY.getBytes(StandardCharsets.UTF_8), "MINID".getBytes(StandardCharsets.UTF_8),
+            "~".getBytes(StandardCharsets.UTF_8), minId.getBytes(StandardCharsets.UTF_8)};
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.execute("XTRIM", args));
+    }
+
+    /**
+     * 取消超时未支付的订单，每次领取一批，直到没有到期的订单
+     */
+    @Scheduled(initialDelay = 10000, fixedDelayString = "${hmdp.seckill.cancel-interval:1000}")
+    public void cancelUnpaid() {
+        try {
+            while (running) {
+                @SuppressWarnings("unchecked")
+                List<String> due = stringRedisTemplate.execute(CLAIM_SCRIPT,
+                    Collections.singletonList(SECKILL_UNPAID_KEY), String.valueOf(batchSize),
+                    String.valueOf(cancelLease.toMillis()));
+                if (due == null || due.isEmpty()) {
+                    return;
+                }
+                cancelUnpaid(due);
+                if (due.size() < batchSize) {
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            // 已经领取的订单租期过后重新到期
+            log.error("取消超时未支付的订单失败", e);
+        }
+    }
+
+    private void cancelUnpaid(List<String> due) {
+        List<Long> ids = due.stream().map(Long::valueOf).collect(Collectors.toList());
+        Map<Long, VoucherOrder> orders = listByIds(ids).stream()
+            .collect(Collectors.toMap(VoucherOrder::getId, order -> order));
+        List<VoucherOrder> unpaid = new ArrayList<>();
+        // 上次已经取消、但还没归还redis库存的订单
+        List<VoucherOrder> toReturn = new ArrayList<>();
+        List<String> finished = new ArrayList<>();
+        List<String> missing = new ArrayList<>();
+        long expiredSecond = System.currentTimeMillis() / 1000 - payTimeout.plus(retention).getSeconds();
+        for (Long id : ids) {
+            VoucherOrder order = orders.get(id);
+            if (order == null) {
+                // 还在消息队列里没写入数据库，租期过后再处理；撤销的订单已经移出了队列，太久没写入的不再等待
+                if (RedisIdWorker.extractEpochSecond(id) < expiredSecond) {
+                    missing.add(id.toString());
+                }
+            } else if (Objects.equals(order.getStatus(), ORDER_STATUS_UNPAID)) {
+                unpaid.add(order);
+            } else if (Objects.equals(order.getStatus(), ORDER_STATUS_CANCELLED)) {
+                toReturn.add(order);
+            } else {
+                // 已经支付或者其他状态，不再取消
+                finished.add(id.toString());
+            }
+        }
+        if (!unpaid.isEmpty()) {
+            toReturn.addAll(transactionTemplate.execute(status -> cancel(unpaid)));
+        }
+        if (!missing.isEmpty()) {
+            finished.addAll(returnMissing(missing));
+        }
+        if (!finished.isEmpty()) {
+            // 先删下单信息再移出队列，中途失败时订单还会再到期
+            stringRedisTemplate.opsForHash().delete(SECKILL_UNPAID_INFO_KEY, finished.toArray());
+            stringRedisTemplate.opsForZSet().remove(SECKILL_UNPAID_KEY, finished.toArray());
+            cancelSkipped.add(finished.size());
+        }
+        for (VoucherOrder order : toReturn) {
+            returnStock(order.getVoucherId(), order.getUserId(), order.getId());
+        }
+    }
+
+    /**
+     * 一直没有写入数据库的订单，按下单时记录的优惠券和用户归还redis库存，用户可以重新下单
+     *
+     * @return 没有下单信息、只能直接移出队列的订单
+     */
+    private List<String> returnMissing(List<String> ids) {
+        List<Object> infos = stringRedisTemplate.opsForHash().multiGet(SECKILL_UNPAID_INFO_KEY, new ArrayList<>(ids));
+        List<String> unknown = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            String id = ids.get(i);
+            Object info = infos.get(i);
+            if (info == null) {
+                log.warn("订单{}超时未支付, 但数据库里没有, 也没有下单信息, 不再取消", id);
+                unknown.add(id);
+                continue;
+            }
+            String[] parts = info.toString().split(":");
+            log.warn("订单{}超时未支付, 但数据库里没有, 归还优惠券{}的库存", id, parts[0]);
+            returnStock(Long.valueOf(parts[0]), Long.valueOf(parts[1]), Long.valueOf(id));
+            lost.increment();
+        }
+        return unknown;
+    }
+
+    /**
+     * 归还redis库存并移出待支付队列，同一个订单只归还一次
+     */
+    private void returnStock(Long voucherId, Long userId, Long orderId) {
+        stringRedisTemplate.execute(CANCEL_SCRIPT,
+            Arrays.asList(SECKILL_STOCK_KEY + voucherId, SECKILL_ORDER_KEY + voucherId, SECKILL_UNPAID_KEY,
+                SECKILL_UNPAID_INFO_KEY),
+            userId.toString(), orderId.toString());
+    }
+
+    /**
+     * 只有还是未支付状态的订单才能取消，和支付并发时只有一方成功
+     *
+     * @return 取消成功的订单
+     */
+    private List<VoucherOrder> cancel(List<VoucherOrder> orders) {
+        LocalDateTime now = LocalDateTime.now();
+        List<VoucherOrder> cancelledOrders = new ArrayList<>();
+        for (VoucherOrder order : orders) {
+            boolean updated = update()
+                .set("status", ORDER_STATUS_CANCELLED)
+                .set("update_time", now)
+                .eq("id", order.getId())
+                .eq("status", ORDER_STATUS_UNPAID)
+                .update();
+            if (updated) {
+                cancelledOrders.add(order);
+            }
+        }
+        // 每个优惠券只加一次库存
+        cancelledOrders.stream()
+            .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, Collectors.counting()))
+            .forEach((voucherId, count) -> seckillVoucherService.update()
+                .setSql("stock = stock + " + count)
+                .eq("voucher_id", voucherId)
+                .update());
+        cancelled.add(cancelledOrders.size());
+        return cancelledOrders;
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        long batchCount = batches.sum();
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("consumer", consumerName);
+        map.put("batches", batchCount);
+        map.put("consumed", consumed.sum());
+        map.put("avgBatchSize", batchCount == 0 ? 0D : (double) consumed.sum() / batchCount);
+        map.put("maxBatchSize", maxBatchSize.get());
+        map.put("inserted", inserted.sum());
+        map.put("duplicated", duplicated.sum());
+        map.put("rolledBack", rolledBack.sum());
+        map.put("failedBatches", failedBatches.sum());
+        map.put("claimed", claimed.sum());
+        map.put("cancelled", cancelled.sum());
+        map.put("cancelSkipped", cancelSkipped.sum());
+        map.put("lost", lost.sum());
+        map.put("avgInsertMillis", batchCount == 0 ? 0D : insertNanos.sum() / 1e6 / batchCount);
+        map.put("maxInsertMillis", maxInsertNanos.get() / 1e6);
+        try {
+            map.put("unpaid", stringRedisTemplate.opsForZSet().zCard(SECKILL_UNPAID_KEY));
+            map.putAll(lag());
+        } catch (Exception e) {
+            map.put("lagError", e.getMessage());
+        }
+        return map;
+    }
+
+    /**
+     * 消费延迟：还没确认的消息数、还没读取的消息数、最新消息和最后读取的消息之间的时间差
+     */
+    private Map<String, Object> lag() {
+        Map<String, Object> map = new HashMap<>();
+        StreamInfo.XInfoStream info = stringRedisTemplate.opsForStream().info(SECKILL_STREAM_KEY);
+        map.put("streamLength", info.streamLength());
+        StreamInfo.XInfoGroup group = findGroup();
+        if (group != null) {
+            map.put("pending", group.pendingCount());
+            long lastGenerated = RecordId.of(info.lastGeneratedId()).getTimestamp();
+            long lastDelivered = RecordId.of(group.lastDeliveredId()).getTimestamp();
+            map.put("lagMillis", Math.max(0, lastGenerated - lastDelivered));
+        }
+        return map;
+    }
+
+    private StreamInfo.XInfoGroup findGroup() {
+        return stringRedisTemplate.opsForStream().groups(SECKILL_STREAM_KEY).stream()
+            .filter(group -> consumerGroup.equals(group.groupName()))
+            .findFirst().orElse(null);
+    }
+
+    private void recordMetrics(int size, long nanos) {
+        batches.increment();
+        consumed.add(size);
+        insertNanos.add(nanos);
+        maxBatchSize.accumulateAndGet(size, Math::max);
+        maxInsertNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * 归还redis库存，允许用户重新下单，并移出待支付队列
+     */
+    private void rollback(VoucherOrder voucherOrder) {
+        Long voucherId = voucherOrder.getVoucherId();
+        try {
+            stringRedisTemplate.execute(ROLLBACK_SCRIPT,
+                Arrays.asList(SECKILL_STOCK_KEY + voucherId, SECKILL_ORDER_KEY + voucherId, SECKILL_UNPAID_KEY,
+                    SECKILL_UNPAID_INFO_KEY),
+                voucherOrder.getUserId().toString(), voucherOrder.getId().toString());
+            rolledBack.increment();
+        } catch (Exception e) {
+            log.error("撤销秒杀订单{}失败", voucherOrder.getId(), e);
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 }
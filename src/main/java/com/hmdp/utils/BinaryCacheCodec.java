@@ -0,0 +1,100 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.Voucher;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 紧凑的二进制编码，只支持注册了schema的类型，其他类型由 {@link JsonCacheCodec} 处理
+ */
+@Component
+public class BinaryCacheCodec implements CacheCodec {
+
+    public static final byte ID = 2;
+
+    private final Map<Class<?>, BinarySchema<?>> schemas = new HashMap<>();
+
+    public BinaryCacheCodec(@Value("${hmdp.cache.codec.compress-threshold:128}") int compressThreshold) {
+        register(new BinarySchema<>(Shop.class, 1, Shop::new, compressThreshold)
+            .int64(Shop::getId, Shop::setId)
+            .string(Shop::getName, Shop::setName)
+            .int64(Shop::getTypeId, Shop::setTypeId)
+            .compressedString(Shop::getImages, Shop::setImages)
+            .string(Shop::getArea, Shop::setArea)
+            .string(Shop::getAddress, Shop::setAddress)
+            .float64(Shop::getX, Shop::setX)
+            .float64(Shop::getY, Shop::setY)
+            .int64(Shop::getAvgPrice, Shop::setAvgPrice)
+            .int32(Shop::getSold, Shop::setSold)
+            .int32(Shop::getComments, Shop::setComments)
+            .int32(Shop::getScore, Shop::setScore)
+            .string(Shop::getOpenHours, Shop::setOpenHours)
+            .dateTime(Shop::getCreateTime, Shop::setCreateTime)
+            .dateTime(Shop::getUpdateTime, Shop::setUpdateTime));
+        register(new BinarySchema<>(Voucher.class, 1, Voucher::new, compressThreshold)
+            .int64(Voucher::getId, Voucher::setId)
+            .int64(Voucher::getShopId, Voucher::setShopId)
+            .string(Voucher::getTitle, Voucher::setTitle)
+            .string(Voucher::getSubTitle, Voucher::setSubTitle)
+            .compressedString(Voucher::getRules, Voucher::setRules)
+            .int64(Voucher::getPayValue, Voucher::setPayValue)
+            .int64(Voucher::getActualValue, Voucher::setActualValue)
+            .int32(Voucher::getType, Voucher::setType)
+            .int32(Voucher::getStatus, Voucher::setStatus)
+            .int32(Voucher::getStock, Voucher::setStock)
+            .dateTime(Voucher::getBeginTime, Voucher::setBeginTime)
+            .dateTime(Voucher::getEndTime, Voucher::setEndTime)
+            .dateTime(Voucher::getCreateTime, Voucher::setCreateTime)
+            .dateTime(Voucher::getUpdateTime, Voucher::setUpdateTime));
+        register(new BinarySchema<>(UserDTO.class, 1, UserDTO::new, compressThreshold)
+            .int64(UserDTO::getId, UserDTO::setId)
+            .string(UserDTO::getNickName, UserDTO::setNickName)
+            .string(UserDTO::getIcon, UserDTO::setIcon));
+        register(new BinarySchema<>(Blog.class, 1, Blog::new, compressThreshold)
+            .int64(Blog::getId, Blog::setId)
+            .int64(Blog::getShopId, Blog::setShopId)
+            .int64(Blog::getUserId, Blog::setUserId)
+            .string(Blog::getIcon, Blog::setIcon)
+            .string(Blog::getName, Blog::setName)
+            .bool(Blog::getIsLike, Blog::setIsLike)
+            .string(Blog::getTitle, Blog::setTitle)
+            .compressedString(Blog::getImages, Blog::setImages)
+            .compressedString(Blog::getContent, Blog::setContent)
+            .int32(Blog::getLiked, Blog::setLiked)
+            .int32(Blog::getComments, Blog::setComments)
+            .dateTime(Blog::getCreateTime, Blog::setCreateTime)
+            .dateTime(Blog::getUpdateTime, Blog::setUpdateTime));
+    }
+
+    private void register(BinarySchema<?> schema) {
+        schemas.put(schema.getType(), schema);
+    }
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public boolean supports(Class<?> type) {
+        return schemas.containsKey(type);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public byte[] encode(Object value) {
+        return ((BinarySchema<Object>) schemas.get(value.getClass())).encode(value);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T decode(byte[] bytes, int offset, Class<T> type) {
+        return ((BinarySchema<T>) schemas.get(type)).decode(bytes, offset);
+    }
+}
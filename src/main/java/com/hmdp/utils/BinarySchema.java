@@ -0,0 +1,253 @@
+package com.hmdp.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 一个类型的二进制编码格式
+ * <p>
+ * 格式：schema版本 | 字段数 | 字段是否为null的位图 | 非null字段依次编码
+ * 整数用zigzag varint，字符串是 varint(长度<<1|是否压缩) + 字节，时间是 epoch秒 + 纳秒
+ * 字段只能在末尾追加，新代码能读旧数据，旧代码读新数据时忽略末尾不认识的字段
+ */
+public class BinarySchema<T> {
+
+    private final Class<T> type;
+    private final int version;
+    private final Supplier<T> constructor;
+    private final int compressThreshold;
+    private final List<Field<T>> fields = new ArrayList<>();
+
+    public BinarySchema(Class<T> type, int version, Supplier<T> constructor, int compressThreshold) {
+        this.type = type;
+        this.version = version;
+        this.constructor = constructor;
+        this.compressThreshold = compressThreshold;
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    public BinarySchema<T> int64(Function<T, Long> getter, BiConsumer<T, Long> setter) {
+        return field(getter, setter, (w, v) -> w.writeVarLong(v), Reader::readVarLong);
+    }
+
+    public BinarySchema<T> int32(Function<T, Integer> getter, BiConsumer<T, Integer> setter) {
+        return field(getter, setter, (w, v) -> w.writeVarLong(v), r -> (int) r.readVarLong());
+    }
+
+    public BinarySchema<T> float64(Function<T, Double> getter, BiConsumer<T, Double> setter) {
+        return field(getter, setter, (w, v) -> w.writeFixedLong(Double.doubleToRawLongBits(v)),
+            r -> Double.longBitsToDouble(r.readFixedLong()));
+    }
+
+    public BinarySchema<T> bool(Function<T, Boolean> getter, BiConsumer<T, Boolean> setter) {
+        return field(getter, setter, (w, v) -> w.write(v ? 1 : 0), r -> r.read() == 1);
+    }
+
+    public BinarySchema<T> string(Function<T, String> getter, BiConsumer<T, String> setter) {
+        return field(getter, setter, (w, v) -> w.writeString(v, Integer.MAX_VALUE), Reader::readString);
+    }
+
+    /**
+     * 较长时用deflate压缩的字符串，适合图片列表、正文等字段
+     */
+    public BinarySchema<T> compressedString(Function<T, String> getter, BiConsumer<T, String> setter) {
+        return field(getter, setter, (w, v) -> w.writeString(v, compressThreshold), Reader::readString);
+    }
+
+    public BinarySchema<T> dateTime(Function<T, LocalDateTime> getter, BiConsumer<T, LocalDateTime> setter) {
+        return field(getter, setter, (w, v) -> {
+            w.writeVarLong(v.toEpochSecond(ZoneOffset.UTC));
+            w.writeVarLong(v.getNano());
+        }, r -> LocalDateTime.ofEpochSecond(r.readVarLong(), (int) r.readVarLong(), ZoneOffset.UTC));
+    }
+
+    private <V> BinarySchema<T> field(Function<T, V> getter, BiConsumer<T, V> setter, BiConsumer<Writer, V> writer,
+                                      Function<Reader, V> reader) {
+        fields.add(new Field<>(getter, setter, writer, reader));
+        return this;
+    }
+
+    public byte[] encode(T value) {
+        Writer w = new Writer();
+        w.writeVarLong(version);
+        w.writeVarLong(fields.size());
+        byte[] bitmap = new byte[(fields.size() + 7) / 8];
+        Object[] values = new Object[fields.size()];
+        for (int i = 0; i < fields.size(); i++) {
+            values[i] = fields.get(i).getter.apply(value);
+            if (values[i] != null) {
+                bitmap[i >>> 3] |= (byte) (1 << (i & 7));
+            }
+        }
+        w.write(bitmap, 0, bitmap.length);
+        for (int i = 0; i < fields.size(); i++) {
+            if (values[i] != null) {
+                fields.get(i).write(w, values[i]);
+            }
+        }
+        return w.toByteArray();
+    }
+
+    public T decode(byte[] bytes, int offset) {
+        Reader r = new Reader(bytes, offset);
+        // 版本号目前只用于排查问题，兼容性靠字段只追加保证
+        r.readVarLong();
+        int count = (int) r.readVarLong();
+        byte[] bitmap = Arrays.copyOfRange(bytes, r.pos, r.pos + (count + 7) / 8);
+        r.pos += bitmap.length;
+        T value = constructor.get();
+        int known = Math.min(count, fields.size());
+        for (int i = 0; i < known; i++) {
+            if ((bitmap[i >>> 3] & (1 << (i & 7))) != 0) {
+                fields.get(i).read(r, value);
+            }
+        }
+        return value;
+    }
+
+    private static class Field<T> {
+        private final Function<T, ?> getter;
+        private final BiConsumer<T, Object> setter;
+        private final BiConsumer<Writer, Object> writer;
+        private final Function<Reader, ?> reader;
+
+        @SuppressWarnings("unchecked")
+        <V> Field(Function<T, V> getter, BiConsumer<T, V> setter, BiConsumer<Writer, V> writer,
+                  Function<Reader, V> reader) {
+            this.getter = getter;
+            this.setter = (BiConsumer<T, Object>) setter;
+            this.writer = (BiConsumer<Writer, Object>) writer;
+            this.reader = reader;
+        }
+
+        void write(Writer w, Object value) {
+            writer.accept(w, value);
+        }
+
+        void read(Reader r, T target) {
+            setter.accept(target, reader.apply(r));
+        }
+    }
+
+    private static class Writer extends ByteArrayOutputStream {
+
+        Writer() {
+            super(128);
+        }
+
+        void writeVarLong(long value) {
+            // zigzag，负数也能编码得很短
+            long v = (value << 1) ^ (value >> 63);
+            while ((v & ~0x7FL) != 0) {
+                write((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            write((int) v);
+        }
+
+        void writeFixedLong(long value) {
+            for (int i = 56; i >= 0; i -= 8) {
+                write((int) (value >>> i));
+            }
+        }
+
+        void writeString(String value, int compressThreshold) {
+            byte[] raw = value.getBytes(StandardCharsets.UTF_8);
+            if (raw.length >= compressThreshold) {
+                byte[] compressed = deflate(raw);
+                if (compressed.length < raw.length) {
+                    writeVarLong(((long) compressed.length << 1) | 1);
+                    writeVarLong(raw.length);
+                    write(compressed, 0, compressed.length);
+                    return;
+                }
+            }
+            writeVarLong((long) raw.length << 1);
+            write(raw, 0, raw.length);
+        }
+
+        private static byte[] deflate(byte[] raw) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+            try {
+                deflater.setInput(raw);
+                deflater.finish();
+                byte[] buf = new byte[raw.length + 64];
+                int len = deflater.deflate(buf);
+                return deflater.finished() ? Arrays.copyOf(buf, len) : raw;
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+
+    private static class Reader {
+        private final byte[] bytes;
+        private int pos;
+
+        Reader(byte[] bytes, int pos) {
+            this.bytes = bytes;
+            this.pos = pos;
+        }
+
+        int read() {
+            return bytes[pos++] & 0xFF;
+        }
+
+        long readVarLong() {
+            long v = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = read();
+                v |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        long readFixedLong() {
+            long v = 0;
+            for (int i = 0; i < 8; i++) {
+                v = (v << 8) | read();
+            }
+            return v;
+        }
+
+        String readString() {
+            long header = readVarLong();
+            int len = (int) (header >>> 1);
+            if ((header & 1) == 0) {
+                String s = new String(bytes, pos, len, StandardCharsets.UTF_8);
+                pos += len;
+                return s;
+            }
+            int rawLen = (int) readVarLong();
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(bytes, pos, len);
+                byte[] raw = new byte[rawLen];
+                inflater.inflate(raw);
+                pos += len;
+                return new String(raw, StandardCharsets.UTF_8);
+            } catch (DataFormatException e) {
+                throw new RuntimeException("缓存解压失败", e);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+}
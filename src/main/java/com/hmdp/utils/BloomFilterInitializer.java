@@ -0,0 +1,84 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.UserMapper;
+import com.hmdp.mapper.VoucherMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 布隆过滤器初始化和定期同步
+ * 启动时在后台线程里加载或构建，失败了等下次同步时重试，期间过滤器放行所有id
+ */
+@Slf4j
+@Component
+public class BloomFilterInitializer implements ApplicationRunner {
+
+    private static final int SCAN_BATCH_SIZE = 10000;
+
+    @Resource
+    private RedisBloomFilter shopBloomFilter;
+
+    @Resource
+    private RedisBloomFilter voucherBloomFilter;
+
+    @Resource
+    private RedisBloomFilter userBloomFilter;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private VoucherMapper voucherMapper;
+
+    @Resource
+    private UserMapper userMapper;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        Thread thread = new Thread(this::sync, "bloom-filter-init");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 未初始化的过滤器重新初始化，已初始化的从redis合并一次，防止漏掉广播
+     */
+    @Scheduled(initialDelay = 10, fixedDelay = 10, timeUnit = TimeUnit.MINUTES)
+    public void sync() {
+        sync(shopBloomFilter, idScanner(shopMapper));
+        sync(voucherBloomFilter, idScanner(voucherMapper));
+        sync(userBloomFilter, idScanner(userMapper));
+    }
+
+    private void sync(RedisBloomFilter filter, Function<Long, List<Long>> idScanner) {
+        try {
+            if (filter.isReady()) {
+                filter.load();
+            } else {
+                filter.init(idScanner);
+            }
+        } catch (Exception e) {
+            log.error("布隆过滤器[{}]同步失败", filter.getName(), e);
+        }
+    }
+
+    /**
+     * 按id顺序分批扫描表中的id
+     */
+    private static <T> Function<Long, List<Long>> idScanner(BaseMapper<T> mapper) {
+        return lastId -> mapper.selectObjs(new QueryWrapper<T>().select("id").gt("id", lastId).orderByAsc("id")
+            .last("LIMIT " + SCAN_BATCH_SIZE)).stream().map(id -> ((Number) id).longValue()).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,601 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisStringCommands.SetOption;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 通用缓存客户端
+ * <p>
+ * 缓存值格式：格式版本(1字节) | 编码方式(1字节) | 标记(1字节) | 过期时间戳(8字节) | 重建耗时毫秒(4字节) | 编码后的数据
+ * 标记的最低位表示是否是逻辑过期，物理过期的数据也记录过期时间，用于提前刷新
+ * 空数组表示数据不存在（缓存穿透的空值）
+ * <p>
+ * 写入时过期时间会加上随机抖动，避免一起预热的数据一起过期；
+ * 读取时按 XFetch 算法（now - 重建耗时 * beta * ln(rand) >= 过期时间）概率性地提前异步重建，
+ * 越接近过期、重建越慢，提前重建的概率越大
+ */
+@Slf4j
+@Component
+public class CacheClient {
+
+    private static final byte ENTRY_VERSION = 2;
+    private static final int HEADER_LENGTH = 15;
+    private static final int V1_HEADER_LENGTH = 10;
+    private static final byte FLAG_LOGICAL_EXPIRE = 1;
+    private static final byte[] NULL_VALUE = new byte[0];
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisTemplate<String, byte[]> byteRedisTemplate;
+
+    @Resource
+    private LocalCache localCache;
+
+    @Resource
+    private RedisLockClient redisLockClient;
+
+    @Resource
+    private CacheStats cacheStats;
+
+    @Resource
+    private CacheRefreshScheduler cacheRefreshScheduler;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private JsonCacheCodec jsonCacheCodec;
+
+    @Resource
+    private BinaryCacheCodec binaryCacheCodec;
+
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    /**
+     * 互斥重建时等待结果的最长时间
+     */
+    @Value("${hmdp.cache.rebuild-wait:3s}")
+    private Duration rebuildWait;
+
+    /**
+     * 写缓存时优先使用的编码方式，binary 或 json
+     */
+    @Value("${hmdp.cache.codec.type:binary}")
+    private String codecType;
+
+    /**
+     * 过期时间的随机抖动比例，0.1表示在 ±10% 范围内浮动
+     */
+    @Value("${hmdp.cache.ttl-jitter:0.1}")
+    private double ttlJitter;
+
+    /**
+     * XFetch的beta，越大越倾向于提前重建，0表示关闭
+     */
+    @Value("${hmdp.cache.xfetch-beta:1.0}")
+    private double xfetchBeta;
+
+    private CacheCodec preferredCodec;
+
+    @PostConstruct
+    public void init() {
+        preferredCodec = "json".equalsIgnoreCase(codecType) ? jsonCacheCodec : binaryCacheCodec;
+    }
+
+    /**
+     * 写入缓存，设置物理过期时间
+     */
+    public void set(String key, Object value, Long time, TimeUnit unit) {
+        set(key, value, time, unit, 0);
+    }
+
+    private void set(String key, Object value, Long time, TimeUnit unit, int costMillis) {
+        long ttl = jitter(unit.toMillis(time));
+        byteRedisTemplate.opsForValue().set(key, encode(value, System.currentTimeMillis() + ttl, false, costMillis),
+            ttl, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 写入缓存，设置逻辑过期时间，redis中的key永不过期
+     */
+    public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit) {
+        setWithLogicalExpire(key, value, time, unit, 0);
+    }
+
+    private long setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit, int costMillis) {
+        long expireMillis = System.currentTimeMillis() + jitter(unit.toMillis(time));
+        byteRedisTemplate.opsForValue().set(key, encode(value, expireMillis, true, costMillis));
+        return expireMillis;
+    }
+
+    /**
+     * 批量写入缓存，设置逻辑过期时间，所有写入通过一次pipeline发送
+     *
+     * @param values key -> 值
+     */
+    public void setWithLogicalExpireBatch(Map<String, ?> values, Long time, TimeUnit unit) {
+        if (values.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long ttl = unit.toMillis(time);
+        Map<byte[], byte[]> encoded = new HashMap<>(values.size() * 4 / 3 + 1);
+        values.forEach((key, value) -> encoded.put(key.getBytes(StandardCharsets.UTF_8),
+            encode(value, now + jitter(ttl), true, 0)));
+        byteRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            encoded.forEach((k, v) -> connection.stringCommands().set(k, v));
+            return null;
+        });
+    }
+
+    /**
+     * 删除缓存，同时清理本节点和其他节点的本地缓存
+     */
+    public void delete(String key) {
+        stringRedisTemplate.delete(key);
+        localCache.invalidate(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    /**
+     * 按指定策略查询缓存
+     *
+     * @param keyPrefix  key前缀
+     * @param id         id
+     * @param type       值类型
+     * @param dbFallback 缓存未命中时的查库函数
+     * @param time       缓存时间
+     * @param unit       时间单位
+     * @param strategy   缓存策略
+     * @return 不存在返回null
+     */
+    public <R, ID> R query(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time,
+                           TimeUnit unit, CacheStrategy strategy) {
+        String key = keyPrefix + id;
+        hotKeyDetector.record(key);
+        // 先查本地缓存
+        R local = localCache.get(key);
+        if (local != null) {
+            cacheRefreshScheduler.touch(key);
+            return local;
+        }
+        switch (strategy) {
+            case MUTEX:
+                return queryWithMutex(key, id, type, dbFallback, time, unit);
+            case LOGICAL_EXPIRE:
+                return queryWithLogicalExpire(key, id, type, dbFallback, time, unit);
+            default:
+                return queryWithPassThrough(key, id, type, dbFallback, time, unit);
+        }
+    }
+
+    /**
+     * 批量查询缓存
+     * 本地缓存未命中的key通过一次MGET查询，redis未命中的id一次查库，再通过一次pipeline回填
+     *
+     * @param keyPrefix  key前缀
+     * @param ids        id列表
+     * @param type       值类型
+     * @param dbFallback 批量查库函数
+     * @param idGetter   从查库结果中取id
+     * @param time       缓存时间
+     * @param unit       时间单位
+     * @param strategy   回填方式，LOGICAL_EXPIRE写逻辑过期，其他写物理过期
+     * @return 按ids的顺序返回存在的数据
+     */
+    public <R, ID> List<R> queryBatch(String keyPrefix, Collection<ID> ids, Class<R> type,
+                                      Function<Collection<ID>, List<R>> dbFallback, Function<R, ID> idGetter,
+                                      Long time, TimeUnit unit, CacheStrategy strategy) {
+        List<ID> distinctIds = new ArrayList<>(new LinkedHashSet<>(ids));
+        Map<ID, R> found = new HashMap<>(distinctIds.size() * 4 / 3 + 1);
+        // 先查本地缓存
+        List<ID> remoteIds = new ArrayList<>();
+        for (ID id : distinctIds) {
+            String key = keyPrefix + id;
+            hotKeyDetector.record(key);
+            R local = localCache.get(key);
+            if (local != null) {
+                cacheRefreshScheduler.touch(key);
+                found.put(id, local);
+            } else {
+                remoteIds.add(id);
+            }
+        }
+        if (remoteIds.isEmpty()) {
+            return collect(distinctIds, found);
+        }
+        // 一次MGET查询redis
+        List<String> keys = remoteIds.stream().map(id -> keyPrefix + id).collect(Collectors.toList());
+        List<byte[]> values = byteRedisTemplate.opsForValue().multiGet(keys);
+        List<ID> missIds = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < remoteIds.size(); i++) {
+            ID id = remoteIds.get(i);
+            String key = keys.get(i);
+            byte[] bytes = values == null ? null : values.get(i);
+            if (bytes == null) {
+                cacheStats.redisMiss();
+                missIds.add(id);
+                continue;
+            }
+            cacheStats.redisHit();
+            // 空值，数据不存在
+            if (bytes.length == 0) {
+                continue;
+            }
+            R r = decode(bytes, type);
+            found.put(id, r);
+            long expireMillis = expireMillis(bytes);
+            if (!isLogicalExpire(bytes)) {
+                localCache.put(key, r, 0);
+                if (shouldRefreshEarly(bytes)) {
+                    cacheRefreshScheduler.submit(key,
+                        () -> rebuildWithTtl(key, id, singleLoader(dbFallback), time, unit));
+                }
+                continue;
+            }
+            Runnable refresher = () -> rebuildWithLogicalExpire(key, id, singleLoader(dbFallback), time, unit);
+            if (expireMillis > now) {
+                localCache.put(key, r, expireMillis);
+                cacheRefreshScheduler.track(key, expireMillis, refresher);
+                if (shouldRefreshEarly(bytes)) {
+                    cacheRefreshScheduler.submit(key, refresher);
+                }
+            } else {
+                cacheRefreshScheduler.submit(key, refresher);
+            }
+        }
+        if (missIds.isEmpty()) {
+            return collect(distinctIds, found);
+        }
+        // 未命中的id一次查库，平均耗时作为每条数据的重建耗时
+        long start = System.currentTimeMillis();
+        List<R> loaded = dbFallback.apply(missIds);
+        int costMillis = (int) ((System.currentTimeMillis() - start) / missIds.size());
+        for (R r : loaded) {
+            found.put(idGetter.apply(r), r);
+        }
+        // 一次pipeline回填，不存在的id写空值
+        boolean logical = strategy == CacheStrategy.LOGICAL_EXPIRE;
+        long ttl = unit.toMillis(time);
+        Expiration nullTtl = Expiration.from(CACHE_NULL_TTL, TimeUnit.MINUTES);
+        Map<byte[], byte[]> backfill = new HashMap<>(missIds.size() * 4 / 3 + 1);
+        Map<byte[], Expiration> backfillTtl = new HashMap<>(missIds.size() * 4 / 3 + 1);
+        Set<byte[]> nullKeys = new HashSet<>();
+        for (ID id : missIds) {
+            String key = keyPrefix + id;
+            byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+            R r = found.get(id);
+            if (r == null) {
+                nullKeys.add(rawKey);
+                continue;
+            }
+            long entryTtl = jitter(ttl);
+            backfill.put(rawKey, encode(r, now + entryTtl, logical, costMillis));
+            backfillTtl.put(rawKey, logical ? Expiration.persistent()
+                : Expiration.from(entryTtl, TimeUnit.MILLISECONDS));
+            localCache.put(key, r, logical ? now + entryTtl : 0);
+        }
+        byteRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            backfill.forEach((k, v) -> connection.stringCommands().set(k, v, backfillTtl.get(k), SetOption.upsert()));
+            nullKeys.forEach(k -> connection.stringCommands().set(k, NULL_VALUE, nullTtl, SetOption.upsert()));
+            return null;
+        });
+        return collect(distinctIds, found);
+    }
+
+    private static <R, ID> List<R> collect(List<ID> ids, Map<ID, R> found) {
+        return ids.stream().map(found::get).filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    private static <R, ID> Function<ID, R> singleLoader(Function<Collection<ID>, List<R>> batchLoader) {
+        return id -> {
+            List<R> list = batchLoader.apply(Collections.singletonList(id));
+            return list.isEmpty() ? null : list.get(0);
+        };
+    }
+
+    /**
+     * 缓存穿透，查不到的数据缓存空值
+     */
+    private <R, ID> R queryWithPassThrough(String key, ID id, Class<R> type, Function<ID, R> dbFallback, Long time,
+                                           TimeUnit unit) {
+        byte[] bytes = byteRedisTemplate.opsForValue().get(key);
+        // 命中缓存
+        if (bytes != null) {
+            cacheStats.redisHit();
+            return decodeAndCacheLocal(key, id, bytes, type, dbFallback, time, unit);
+        }
+        cacheStats.redisMiss();
+        // 没缓存，查库
+        return loadAndCache(key, id, dbFallback, time, unit);
+    }
+
+    /**
+     * 缓存击穿 互斥锁的实现方式
+     * 进程内同一个key只有一个线程去抢redis锁重建，其他线程等它的结果
+     */
+    private <R, ID> R queryWithMutex(String key, ID id, Class<R> type, Function<ID, R> dbFallback, Long time,
+                                     TimeUnit unit) {
+        byte[] bytes = byteRedisTemplate.opsForValue().get(key);
+        // 命中缓存
+        if (bytes != null) {
+            cacheStats.redisHit();
+            return decodeAndCacheLocal(key, id, bytes, type, dbFallback, time, unit);
+        }
+        cacheStats.redisMiss();
+        long deadline = System.nanoTime() + rebuildWait.toNanos();
+        return singleFlight.execute(key, () -> rebuildWithMutex(key, id, type, dbFallback, time, unit, deadline),
+            rebuildWait.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 抢到redis锁的节点查库重建，没抢到的等锁释放后读其他节点写好的缓存
+     */
+    private <R, ID> R rebuildWithMutex(String key, ID id, Class<R> type, Function<ID, R> dbFallback, Long time,
+                                       TimeUnit unit, long deadline) {
+        ILock lock = redisLockClient.getLock(LOCK_CACHE_KEY + key);
+        long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (!lock.tryLock(remaining, TimeUnit.MILLISECONDS)) {
+            // 最后再查一次，锁可能刚好释放
+            byte[] bytes = byteRedisTemplate.opsForValue().get(key);
+            if (bytes != null) {
+                return decodeAndCacheLocal(key, id, bytes, type, dbFallback, time, unit);
+            }
+            throw new RuntimeException("等待缓存重建超时, key: " + key);
+        }
+        try {
+            // 再查一次，可能已经被其他节点重建好了
+            byte[] bytes = byteRedisTemplate.opsForValue().get(key);
+            if (bytes != null) {
+                return decodeAndCacheLocal(key, id, bytes, type, dbFallback, time, unit);
+            }
+            return loadAndCache(key, id, dbFallback, time, unit);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 缓存击穿 逻辑过期的实现方式
+     * 数据一般提前写入redis，更新后被删除或者还没预热时和互斥锁方式一样只让一个线程查库，写回逻辑过期的数据
+     */
+    private <R, ID> R queryWithLogicalExpire(String key, ID id, Class<R> type, Function<ID, R> dbFallback,
+                                             Long time, TimeUnit unit) {
+        byte[] bytes = byteRedisTemplate.opsForValue().get(key);
+        if (bytes == null) {
+            cacheStats.redisMiss();
+            long deadline = System.nanoTime() + rebuildWait.toNanos();
+            return singleFlight.execute(key,
+                () -> loadWithLogicalExpire(key, id, type, dbFallback, time, unit, deadline),
+                rebuildWait.toMillis(), TimeUnit.MILLISECONDS);
+        }
+        cacheStats.redisHit();
+        // 空值，数据不存在
+        if (bytes.length == 0) {
+            return null;
+        }
+        R r = decode(bytes, type);
+        long expireMillis = expireMillis(bytes);
+        Runnable refresher = () -> rebuildWithLogicalExpire(key, id, dbFallback, time, unit);
+        // 没过期
+        if (expireMillis > System.currentTimeMillis()) {
+            // 放进本地缓存，最多活到逻辑过期时间
+            localCache.put(key, r, expireMillis);
+            // 记录访问，快过期时主动刷新
+            cacheRefreshScheduler.track(key, expireMillis, refresher);
+            // 概率性提前重建
+            if (shouldRefreshEarly(bytes)) {
+                cacheRefreshScheduler.submit(key, refresher);
+            }
+            return r;
+        }
+        // 过期了，交给重建线程池，同一个key只会有一个任务
+        cacheRefreshScheduler.submit(key, refresher);
+        // 返回过期数据
+        return r;
+    }
+
+    /**
+     * 逻辑过期的数据不在redis里时，抢到redis锁的节点查库写回，没抢到的等锁释放后读其他节点写好的缓存
+     */
+    private <R, ID> R loadWithLogicalExpire(String key, ID id, Class<R> type, Function<ID, R> dbFallback, Long time,
+                                            TimeUnit unit, long deadline) {
+        ILock lock = redisLockClient.getLock(LOCK_CACHE_KEY + key);
+        long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (!lock.tryLock(remaining, TimeUnit.MILLISECONDS)) {
+            byte[] bytes = byteRedisTemplate.opsForValue().get(key);
+            if (bytes != null) {
+                return decode(bytes, type);
+            }
+            throw new RuntimeException("等待缓存重建超时, key: " + key);
+        }
+        try {
+            byte[] bytes = byteRedisTemplate.opsForValue().get(key);
+            if (bytes != null) {
+                return decode(bytes, type);
+            }
+            long start = System.currentTimeMillis();
+            R r = dbFallback.apply(id);
+            int costMillis = (int) (System.currentTimeMillis() - start);
+            if (r == null) {
+                byteRedisTemplate.opsForValue().set(key, NULL_VALUE, CACHE_NULL_TTL, TimeUnit.MINUTES);
+                localCache.invalidate(key);
+                return null;
+            }
+            long expireMillis = setWithLogicalExpire(key, r, time, unit, costMillis);
+            localCache.put(key, r, expireMillis);
+            return r;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 逻辑过期重建，抢到redis锁的节点才查库
+     */
+    private <R, ID> void rebuildWithLogicalExpire(String key, ID id, Function<ID, R> dbFallback, Long time,
+                                                  TimeUnit unit) {
+        ILock lock = redisLockClient.getLock(LOCK_CACHE_KEY + key);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            R r = dbFallback.apply(id);
+            int costMillis = (int) (System.currentTimeMillis() - start);
+            if (r == null) {
+                byteRedisTemplate.opsForValue().set(key, NULL_VALUE, CACHE_NULL_TTL, TimeUnit.MINUTES);
+                localCache.invalidate(key);
+                return;
+            }
+            long expireMillis = setWithLogicalExpire(key, r, time, unit, costMillis);
+            localCache.put(key, r, expireMillis);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 物理过期的数据提前重建，抢到redis锁的节点才查库
+     */
+    private <R, ID> void rebuildWithTtl(String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        ILock lock = redisLockClient.getLock(LOCK_CACHE_KEY + key);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            loadAndCache(key, id, dbFallback, time, unit);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 查库并写入缓存，数据不存在时写入空值
+     */
+    private <R, ID> R loadAndCache(String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        long start = System.currentTimeMillis();
+        R r = dbFallback.apply(id);
+        int costMillis = (int) (System.currentTimeMillis() - start);
+        if (r == null) {
+            byteRedisTemplate.opsForValue().set(key, NULL_VALUE, CACHE_NULL_TTL, TimeUnit.MINUTES);
+            localCache.invalidate(key);
+            return null;
+        }
+        set(key, r, time, unit, costMillis);
+        localCache.put(key, r, 0);
+        return r;
+    }
+
+    /**
+     * 解析缓存值并放进本地缓存，空值表示数据不存在，快过期时概率性提前重建
+     */
+    private <R, ID> R decodeAndCacheLocal(String key, ID id, byte[] bytes, Class<R> type, Function<ID, R> dbFallback,
+                                          Long time, TimeUnit unit) {
+        R r = decode(bytes, type);
+        localCache.put(key, r, 0);
+        if (shouldRefreshEarly(bytes)) {
+            cacheRefreshScheduler.submit(key, () -> rebuildWithTtl(key, id, dbFallback, time, unit));
+        }
+        return r;
+    }
+
+    /**
+     * XFetch：now - 重建耗时 * beta * ln(rand) >= 过期时间 时提前重建
+     */
+    private boolean shouldRefreshEarly(byte[] bytes) {
+        if (xfetchBeta <= 0 || bytes.length == 0) {
+            return false;
+        }
+        int costMillis = costMillis(bytes);
+        long expireMillis = expireMillis(bytes);
+        if (costMillis <= 0 || expireMillis <= 0) {
+            return false;
+        }
+        double gap = -costMillis * xfetchBeta * Math.log(1 - ThreadLocalRandom.current().nextDouble());
+        return System.currentTimeMillis() + gap >= expireMillis;
+    }
+
+    /**
+     * 给过期时间加上随机抖动
+     */
+    private long jitter(long ttlMillis) {
+        if (ttlJitter <= 0) {
+            return ttlMillis;
+        }
+        return Math.max(1, (long) (ttlMillis * (1 + ThreadLocalRandom.current().nextDouble(-ttlJitter, ttlJitter))));
+    }
+
+    private byte[] encode(Object value, long expireMillis, boolean logicalExpire, int costMillis) {
+        if (value == null) {
+            return NULL_VALUE;
+        }
+        CacheCodec codec = preferredCodec.supports(value.getClass()) ? preferredCodec : jsonCacheCodec;
+        byte[] payload = codec.encode(value);
+        return ByteBuffer.allocate(HEADER_LENGTH + payload.length)
+            .put(ENTRY_VERSION)
+            .put(codec.id())
+            .put(logicalExpire ? FLAG_LOGICAL_EXPIRE : 0)
+            .putLong(expireMillis)
+            .putInt(costMillis)
+            .put(payload)
+            .array();
+    }
+
+    private <R> R decode(byte[] bytes, Class<R> type) {
+        if (bytes.length == 0) {
+            return null;
+        }
+        CacheCodec codec = bytes[1] == BinaryCacheCodec.ID ? binaryCacheCodec : jsonCacheCodec;
+        return codec.decode(bytes, bytes[0] == 1 ? V1_HEADER_LENGTH : HEADER_LENGTH, type);
+    }
+
+    /**
+     * 第1版格式没有标记位，过期时间不为0就是逻辑过期
+     */
+    private static boolean isLogicalExpire(byte[] bytes) {
+        if (bytes[0] == 1) {
+            return expireMillis(bytes) > 0;
+        }
+        return (bytes[2] & FLAG_LOGICAL_EXPIRE) != 0;
+    }
+
+    private static long expireMillis(byte[] bytes) {
+        return ByteBuffer.wrap(bytes, bytes[0] == 1 ? 2 : 3, 8).getLong();
+    }
+
+    private static int costMillis(byte[] bytes) {
+        return bytes[0] == 1 ? 0 : ByteBuffer.wrap(bytes, 11, 4).getInt();
+    }
+}
@@ -0,0 +1,21 @@
+package com.hmdp.utils;
+
+/**
+ * 缓存值的序列化方式
+ */
+public interface CacheCodec {
+
+    /**
+     * 编码方式的标识，写在缓存值的头部，读取时据此选择解码方式
+     */
+    byte id();
+
+    /**
+     * 是否支持该类型
+     */
+    boolean supports(Class<?> type);
+
+    byte[] encode(Object value);
+
+    <T> T decode(byte[] bytes, int offset, Class<T> type);
+}
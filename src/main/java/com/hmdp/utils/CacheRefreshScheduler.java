@@ -0,0 +1,191 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存异步重建线程池
+ * <p>
+ * 有界队列，队列满了直接丢弃任务（调用方继续返回旧数据），同一个key同时只会有一个重建任务
+ * 另外记录最近被访问过的逻辑过期key，在快过期前主动刷新，不用等请求发现过期
+ */
+@Slf4j
+@Component
+public class CacheRefreshScheduler {
+
+    private final ThreadPoolExecutor executor;
+
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    private final ConcurrentHashMap<String, HotEntry> hotEntries = new ConcurrentHashMap<>();
+
+    private final long refreshAheadMillis;
+    private final long hotWindowMillis;
+    private final int maxTracked;
+    private final Duration awaitTermination;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder refreshAhead = new LongAdder();
+    private final LongAdder totalLatencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    public CacheRefreshScheduler(@Value("${hmdp.cache.refresh.core-size:4}") int coreSize,
+                                 @Value("${hmdp.cache.refresh.max-size:10}") int maxSize,
+                                 @Value("${hmdp.cache.refresh.queue-capacity:1000}") int queueCapacity,
+                                 @Value("${hmdp.cache.refresh.refresh-ahead:5s}") Duration refreshAhead,
+                                 @Value("${hmdp.cache.refresh.hot-window:60s}") Duration hotWindow,
+                                 @Value("${hmdp.cache.refresh.max-tracked:10000}") int maxTracked,
+                                 @Value("${hmdp.cache.refresh.await-termination:10s}") Duration awaitTermination) {
+        this.executor = new ThreadPoolExecutor(coreSize, maxSize, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueCapacity), new NamedThreadFactory("cache-refresh-", true),
+            new ThreadPoolExecutor.AbortPolicy());
+        this.refreshAheadMillis = refreshAhead.toMillis();
+        this.hotWindowMillis = hotWindow.toMillis();
+        this.maxTracked = maxTracked;
+        this.awaitTermination = awaitTermination;
+    }
+
+    /**
+     * 提交重建任务，同一个key已经有任务在排队或执行时直接忽略
+     *
+     * @return 是否提交成功
+     */
+    public boolean submit(String key, Runnable task) {
+        if (!pending.add(key)) {
+            deduplicated.increment();
+            return false;
+        }
+        try {
+            executor.execute(() -> {
+                long start = System.nanoTime();
+                try {
+                    task.run();
+                    completed.increment();
+                } catch (Exception e) {
+                    failed.increment();
+                    log.error("重建缓存失败, key: {}", key, e);
+                } finally {
+                    pending.remove(key);
+                    long latency = System.nanoTime() - start;
+                    totalLatencyNanos.add(latency);
+                    maxLatencyNanos.accumulateAndGet(latency, Math::max);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 队列满了或者正在关闭，丢弃任务，调用方继续使用旧数据
+            rejected.increment();
+            pending.remove(key);
+            return false;
+        }
+        submitted.increment();
+        return true;
+    }
+
+    /**
+     * 记录一次逻辑过期key的访问，快过期时由定时任务主动刷新
+     *
+     * @param key          缓存key
+     * @param expireMillis 逻辑过期时间戳
+     * @param refresher    刷新逻辑
+     */
+    public void track(String key, long expireMillis, Runnable refresher) {
+        HotEntry entry = hotEntries.get(key);
+        if (entry != null) {
+            entry.lastAccess = System.currentTimeMillis();
+            entry.expireMillis = expireMillis;
+            return;
+        }
+        if (hotEntries.size() >= maxTracked) {
+            return;
+        }
+        hotEntries.put(key, new HotEntry(expireMillis, refresher));
+    }
+
+    /**
+     * 本地缓存命中时更新访问时间，开销只有一次map查询
+     */
+    public void touch(String key) {
+        HotEntry entry = hotEntries.get(key);
+        if (entry != null) {
+            entry.lastAccess = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * 扫描最近访问过的key，快过期的提前刷新，长时间没访问的不再跟踪
+     */
+    @Scheduled(fixedDelay = 1000)
+    public void refreshAhead() {
+        long now = System.currentTimeMillis();
+        hotEntries.forEach((key, entry) -> {
+            if (now - entry.lastAccess > hotWindowMillis) {
+                hotEntries.remove(key, entry);
+                return;
+            }
+            if (entry.expireMillis - now <= refreshAheadMillis && submit(key, entry.refresher)) {
+                // 刷新后的过期时间由下一次访问更新，这里先往后推，避免重复提交
+                entry.expireMillis = Long.MAX_VALUE;
+                refreshAhead.increment();
+            }
+        });
+    }
+
+    public Map<String, Object> stats() {
+        long done = completed.sum() + failed.sum();
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("queueDepth", executor.getQueue().size());
+        map.put("activeThreads", executor.getActiveCount());
+        map.put("poolSize", executor.getPoolSize());
+        map.put("pendingKeys", pending.size());
+        map.put("trackedKeys", hotEntries.size());
+        map.put("submitted", submitted.sum());
+        map.put("deduplicated", deduplicated.sum());
+        map.put("rejected", rejected.sum());
+        map.put("completed", completed.sum());
+        map.put("failed", failed.sum());
+        map.put("refreshAhead", refreshAhead.sum());
+        map.put("avgLatencyMillis", done == 0 ? 0D : totalLatencyNanos.sum() / 1e6 / done);
+        map.put("maxLatencyMillis", maxLatencyNanos.get() / 1e6);
+        return map;
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(awaitTermination.toMillis(), TimeUnit.MILLISECONDS)) {
+            log.warn("缓存重建线程池未能在{}内结束, 剩余{}个任务被丢弃", awaitTermination,
+                executor.shutdownNow().size());
+        }
+    }
+
+    private static class HotEntry {
+        private volatile long lastAccess = System.currentTimeMillis();
+        private volatile long expireMillis;
+        private final Runnable refresher;
+
+        HotEntry(long expireMillis, Runnable refresher) {
+            this.expireMillis = expireMillis;
+            this.refresher = refresher;
+        }
+    }
+}
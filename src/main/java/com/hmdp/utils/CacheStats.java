@@ -0,0 +1,54 @@
+package com.hmdp.utils;
+
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 多级缓存命中统计，本地缓存（L1）和 redis（L2）分开计数
+ */
+@Component
+public class CacheStats {
+    private final LongAdder localHit = new LongAdder();
+    private final LongAdder localMiss = new LongAdder();
+    private final LongAdder redisHit = new LongAdder();
+    private final LongAdder redisMiss = new LongAdder();
+
+    public void localHit() {
+        localHit.increment();
+    }
+
+    public void localMiss() {
+        localMiss.increment();
+    }
+
+    public void redisHit() {
+        redisHit.increment();
+    }
+
+    public void redisMiss() {
+        redisMiss.increment();
+    }
+
+    public Map<String, Object> snapshot() {
+        long lh = localHit.sum();
+        long lm = localMiss.sum();
+        long rh = redisHit.sum();
+        long rm = redisMiss.sum();
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("localHit", lh);
+        map.put("localMiss", lm);
+        map.put("localHitRate", rate(lh, lm));
+        map.put("redisHit", rh);
+        map.put("redisMiss", rm);
+        map.put("redisHitRate", rate(rh, rm));
+        return map;
+    }
+
+    private static double rate(long hit, long miss) {
+        long total = hit + miss;
+        return total == 0 ? 0D : (double) hit / total;
+    }
+}
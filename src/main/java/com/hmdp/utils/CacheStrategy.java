@@ -0,0 +1,19 @@
+package com.hmdp.utils;
+
+/**
+ * 缓存查询策略
+ */
+public enum CacheStrategy {
+    /**
+     * 缓存空值，解决缓存穿透
+     */
+    PASS_THROUGH,
+    /**
+     * 互斥锁重建，解决缓存击穿
+     */
+    MUTEX,
+    /**
+     * 逻辑过期异步重建，解决缓存击穿，数据需要提前预热
+     */
+    LOGICAL_EXPIRE
+}
@@ -0,0 +1,111 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 热点key探测
+ * <p>
+ * 读请求按 1/sampleRate 的概率采样，采样到的key写入count-min sketch估算次数，
+ * 估算值较大的key进入候选集；每个统计窗口结束时取估算QPS超过阈值的前K个作为热点key，然后清空重新统计
+ * 未采样到的请求只有一次随机数的开销
+ */
+@Component
+public class HotKeyDetector {
+
+    private static final int DEPTH = 4;
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    private final int sampleRate;
+    private final int topK;
+    private final long thresholdPerWindow;
+    private final int width;
+
+    private volatile AtomicIntegerArray sketch;
+    private final ConcurrentHashMap<String, Integer> candidates = new ConcurrentHashMap<>();
+    private volatile Map<String, Long> hotKeys = Collections.emptyMap();
+
+    public HotKeyDetector(@Value("${hmdp.cache.hot-key.sample-rate:16}") int sampleRate,
+                          @Value("${hmdp.cache.hot-key.top-k:20}") int topK,
+                          @Value("${hmdp.cache.hot-key.threshold:500}") long thresholdPerWindow,
+                          @Value("${hmdp.cache.hot-key.sketch-width:4096}") int width) {
+        this.sampleRate = Math.max(1, sampleRate);
+        this.topK = topK;
+        this.thresholdPerWindow = thresholdPerWindow;
+        this.width = Integer.highestOneBit(Math.max(64, width));
+        this.sketch = new AtomicIntegerArray(DEPTH * this.width);
+    }
+
+    /**
+     * 记录一次读请求
+     */
+    public void record(String key) {
+        if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return;
+        }
+        AtomicIntegerArray current = sketch;
+        int hash = key.hashCode();
+        int estimate = Integer.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = i * width + (mix(hash ^ SEEDS[i]) & (width - 1));
+            estimate = Math.min(estimate, current.incrementAndGet(index));
+        }
+        // 估算值超过阈值的一部分就进入候选，候选集大小有上限
+        if ((long) estimate * sampleRate * 4 >= thresholdPerWindow
+            && (candidates.size() < topK * 8 || candidates.containsKey(key))) {
+            candidates.put(key, estimate);
+        }
+    }
+
+    /**
+     * 是否是热点key
+     */
+    public boolean isHot(String key) {
+        return hotKeys.containsKey(key);
+    }
+
+    /**
+     * 当前热点key及估算的窗口内访问次数，按次数倒序
+     */
+    public Map<String, Long> hotKeys() {
+        return hotKeys;
+    }
+
+    /**
+     * 统计窗口结束，计算新的热点key集合并清空计数
+     */
+    @Scheduled(fixedDelayString = "${hmdp.cache.hot-key.window:1000}")
+    public void rotate() {
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(candidates.entrySet());
+        sketch = new AtomicIntegerArray(DEPTH * width);
+        candidates.clear();
+        entries.sort((a, b) -> Integer.compare(b.getValue(), a.getValue()));
+        Map<String, Long> hot = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> entry : entries) {
+            long count = (long) entry.getValue() * sampleRate;
+            if (hot.size() >= topK || count < thresholdPerWindow) {
+                break;
+            }
+            hot.put(entry.getKey(), count);
+        }
+        hotKeys = Collections.unmodifiableMap(hot);
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,35 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分布式锁，同一个线程可以重入，只有持有锁的线程能释放
+ */
+public interface ILock {
+
+    /**
+     * 尝试获取锁，不等待，持有期间自动续期
+     *
+     * @return true 获取成功
+     */
+    boolean tryLock();
+
+    /**
+     * 尝试获取锁，锁被占用时等待释放通知，最多等待waitTime，持有期间自动续期
+     *
+     * @param waitTime 最长等待时间
+     * @param unit     时间单位
+     * @return true 获取成功，false 超时或者线程被中断
+     */
+    boolean tryLock(long waitTime, TimeUnit unit);
+
+    /**
+     * 释放锁，重入几次就要释放几次，不是持有者时什么也不做
+     */
+    void unlock();
+
+    /**
+     * 当前线程是否持有锁
+     */
+    boolean isHeldByCurrentThread();
+}
@@ -0,0 +1,47 @@
+package com.hmdp.utils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+
+/**
+ * json编码，支持所有类型
+ */
+@Component
+public class JsonCacheCodec implements CacheCodec {
+
+    public static final byte ID = 1;
+
+    @Resource
+    private ObjectMapper objectMapper;
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public boolean supports(Class<?> type) {
+        return true;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new RuntimeException("缓存序列化失败", e);
+        }
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, int offset, Class<T> type) {
+        try {
+            return objectMapper.readValue(bytes, offset, bytes.length - offset, type);
+        } catch (IOException e) {
+            throw new RuntimeException("缓存反序列化失败", e);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 进程内一级缓存，挡在 redis 前面
+ * 容量满了按 LRU 淘汰，每个条目的存活时间取 本地ttl 和 逻辑过期时间 中较早的那个
+ * 热点key额外固定在一个不参与LRU淘汰的区域，存活时间较短
+ */
+@Component
+public class LocalCache {
+
+    @Resource
+    private CacheStats cacheStats;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    private final LRUCache<String, Object> cache;
+
+    private final ConcurrentHashMap<String, PinnedEntry> pinned = new ConcurrentHashMap<>();
+
+    private final long ttlMillis;
+
+    private final long pinTtlMillis;
+
+    public LocalCache(@Value("${hmdp.cache.local.maximum-size:10000}") int maximumSize,
+                      @Value("${hmdp.cache.local.ttl:30s}") Duration ttl,
+                      @Value("${hmdp.cache.hot-key.pin-ttl:5s}") Duration pinTtl) {
+        this.ttlMillis = ttl.toMillis();
+        this.pinTtlMillis = pinTtl.toMillis();
+        this.cache = CacheUtil.newLRUCache(maximumSize, ttlMillis);
+    }
+
+    /**
+     * 查询本地缓存
+     *
+     * @param key redis中的key
+     * @return 未命中返回null
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key) {
+        PinnedEntry entry = pinned.get(key);
+        if (entry != null) {
+            if (entry.expireMillis > System.currentTimeMillis()) {
+                cacheStats.localHit();
+                return (T) entry.value;
+            }
+            pinned.remove(key, entry);
+        }
+        Object value = cache.get(key, false);
+        if (value == null) {
+            cacheStats.localMiss();
+            return null;
+        }
+        cacheStats.localHit();
+        return (T) value;
+    }
+
+    /**
+     * 写入本地缓存，热点key同时固定
+     *
+     * @param key          redis中的key
+     * @param value        值
+     * @param expireMillis 逻辑过期时间戳，本地条目不会比它活得更久，0表示没有逻辑过期
+     */
+    public void put(String key, Object value, long expireMillis) {
+        if (value == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long timeout = ttlMillis;
+        if (expireMillis > 0) {
+            timeout = Math.min(timeout, expireMillis - now);
+        }
+        if (timeout <= 0) {
+            return;
+        }
+        cache.put(key, value, timeout);
+        if (pinned.containsKey(key) || hotKeyDetector.isHot(key)) {
+            pinned.put(key, new PinnedEntry(value, now + Math.min(timeout, pinTtlMillis)));
+        }
+    }
+
+    public void invalidate(String key) {
+        pinned.remove(key);
+        cache.remove(key);
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public int pinnedSize() {
+        return pinned.size();
+    }
+
+    private static class PinnedEntry {
+        private final Object value;
+        private final long expireMillis;
+
+        PinnedEntry(Object value, long expireMillis) {
+            this.value = value;
+            this.expireMillis = expireMillis;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/**
+ * 游标分页的游标，记录上一页最后一条数据的排序值和id
+ * 对外是不透明的base64字符串，格式：版本(1字节) | 排序方式(1字节) | 排序值(8字节) | id(8字节)
+ * 下一页用 WHERE (sort, id) 在游标之后 ORDER BY sort, id LIMIT n，不需要offset和count
+ * <p>
+ * 同一个接口在不同节点上可能走不同的排序方式（比如索引还没加载完时按id查库），
+ * 排序方式和当前不一致的游标没法接着翻页，从第一页开始
+ */
+@Getter
+public final class PageCursor {
+
+    /**
+     * 按id排序，排序值和id相同
+     */
+    public static final byte ORDER_ID = 1;
+    /**
+     * 按距离排序，排序值是已经返回的条数
+     */
+    public static final byte ORDER_DISTANCE = 2;
+    /**
+     * 商铺名称索引的排序，排序值是 评分 << 32 | 销量
+     */
+    public static final byte ORDER_NAME_RANK = 3;
+    /**
+     * 按点赞数排序
+     */
+    public static final byte ORDER_LIKED = 4;
+
+    private static final byte VERSION = 2;
+    private static final int LENGTH = 18;
+    private static final byte LEGACY_VERSION = 1;
+    private static final int LEGACY_LENGTH = 17;
+
+    private final byte order;
+
+    /**
+     * 排序值，只按id排序时和id相同
+     */
+    private final long sortKey;
+    private final long id;
+
+    private PageCursor(byte order, long sortKey, long id) {
+        this.order = order;
+        this.sortKey = sortKey;
+        this.id = id;
+    }
+
+    public static PageCursor of(byte order, long sortKey, long id) {
+        return new PageCursor(order, sortKey, id);
+    }
+
+    public static PageCursor of(long id) {
+        return new PageCursor(ORDER_ID, id, id);
+    }
+
+    /**
+     * @return 游标的排序方式和order一致时返回游标，否则返回null，从第一页开始
+     */
+    public static PageCursor orderedBy(PageCursor cursor, byte order) {
+        return cursor != null && cursor.order == order ? cursor : null;
+    }
+
+    public String encode() {
+        byte[] bytes = ByteBuffer.allocate(LENGTH).put(VERSION).put(order).putLong(sortKey).putLong(id).array();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * 解析游标
+     *
+     * @return 空字符串返回null，表示第一页
+     * @throws IllegalArgumentException 游标格式不对
+     */
+    public static PageCursor decode(String cursor) {
+        if (StrUtil.isBlank(cursor)) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Base64.getUrlDecoder().decode(cursor));
+        if (buffer.remaining() == LEGACY_LENGTH && buffer.get(0) == LEGACY_VERSION) {
+            // 旧版本的游标没有记录排序方式，从第一页开始
+            return null;
+        }
+        if (buffer.remaining() != LENGTH || buffer.get() != VERSION) {
+            throw new IllegalArgumentException("无效的游标");
+        }
+        return new PageCursor(buffer.get(), buffer.getLong(), buffer.getLong());
+    }
+}
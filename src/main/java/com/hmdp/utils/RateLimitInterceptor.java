@@ -0,0 +1,120 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.Validator;
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.config.RateLimitProperties;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * 按路径匹配限流规则，超过额度的请求直接返回429，不进入业务逻辑
+ * 需要放在RefreshTokenInterceptor之后，按用户限流时才能拿到登录用户
+ */
+public class RateLimitInterceptor implements HandlerInterceptor {
+
+    private static final String REJECTED_MESSAGE = "请求太频繁，请稍后再试";
+
+    private final RateLimiter rateLimiter;
+
+    private final RateLimitProperties rateLimitProperties;
+
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+
+    public RateLimitInterceptor(RateLimiter rateLimiter, RateLimitProperties rateLimitProperties) {
+        this.rateLimiter = rateLimiter;
+        this.rateLimitProperties = rateLimitProperties;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if (!rateLimitProperties.isEnabled()) {
+            return true;
+        }
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        for (RateLimitProperties.Rule rule : rateLimitProperties.getRules()) {
+            if (StrUtil.isNotBlank(rule.getMethod()) && !rule.getMethod().equalsIgnoreCase(request.getMethod())) {
+                continue;
+            }
+            if (!pathMatcher.match(rule.getPath(), path)) {
+                continue;
+            }
+            long retryAfterMillis = rateLimiter.tryAcquire(rule, resolveKey(rule, request));
+            if (retryAfterMillis > 0) {
+                reject(response, retryAfterMillis);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String resolveKey(RateLimitProperties.Rule rule, HttpServletRequest request) {
+        switch (rule.getDimension()) {
+            case GLOBAL:
+                return "global";
+            case USER:
+                UserDTO user = UserHolder.getUser();
+                if (user != null) {
+                    return "user:" + user.getId();
+                }
+                return "ip:" + clientIp(request);
+            default:
+                return "ip:" + clientIp(request);
+        }
+    }
+
+    /**
+     * 请求来自可信的反向代理时，从X-Forwarded-For的最右边往左找第一个不是可信代理的地址，
+     * 左边的部分是客户端自己填的，不能用来限流
+     */
+    private String clientIp(HttpServletRequest request) {
+        String ip = request.getRemoteAddr();
+        if (!isTrustedProxy(ip)) {
+            return ip;
+        }
+        String forwarded = request.getHeader("X-Forwarded-For");
+        if (StrUtil.isBlank(forwarded)) {
+            return ip;
+        }
+        List<String> hops = StrUtil.split(forwarded, ',', true, true);
+        for (int i = hops.size() - 1; i >= 0; i--) {
+            ip = hops.get(i);
+            if (!isTrustedProxy(ip)) {
+                return ip;
+            }
+        }
+        return ip;
+    }
+
+    private boolean isTrustedProxy(String ip) {
+        for (String proxy : rateLimitProperties.getTrustedProxies()) {
+            if (proxy.contains("/")) {
+                if (Validator.isIpv4(ip) && NetUtil.isInRange(ip, proxy)) {
+                    return true;
+                }
+            } else if (proxy.equals(ip)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void reject(HttpServletResponse response, long retryAfterMillis) throws Exception {
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf((retryAfterMillis + 999) / 1000));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.getWriter().write(JSONUtil.toJsonStr(Result.fail(REJECTED_MESSAGE)));
+    }
+}
@@ -0,0 +1,171 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.RateLimitProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.RATE_LIMIT_KEY;
+
+/**
+ * 分布式限流
+ * <p>
+ * 先用本地令牌桶预过滤：单个节点收到的请求已经超过全局额度时直接拒绝，不访问redis；
+ * 通过的请求再由redis里的lua脚本按全局额度判断。redis出错时放行，限流不能影响正常请求
+ */
+@Slf4j
+@Component
+public class RateLimiter {
+
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> TOKEN_BUCKET_SCRIPT;
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> SLIDING_WINDOW_SCRIPT;
+
+    static {
+        TOKEN_BUCKET_SCRIPT = new DefaultRedisScript<>();
+        TOKEN_BUCKET_SCRIPT.setLocation(new ClassPathResource("rate_limit_token_bucket.lua"));
+        TOKEN_BUCKET_SCRIPT.setResultType(List.class);
+        SLIDING_WINDOW_SCRIPT = new DefaultRedisScript<>();
+        SLIDING_WINDOW_SCRIPT.setLocation(new ClassPathResource("rate_limit_sliding_window.lua"));
+        SLIDING_WINDOW_SCRIPT.setResultType(List.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RateLimitProperties rateLimitProperties;
+
+    /**
+     * 本地令牌桶，key是 规则:维度
+     */
+    private final Map<String, LocalBucket> localBuckets = new ConcurrentHashMap<>();
+
+    private final Map<String, RuleStats> ruleStats = new ConcurrentHashMap<>();
+
+    /**
+     * 申请一次请求的额度
+     *
+     * @param rule 限流规则
+     * @param key  维度的值，比如ip、用户id
+     * @return 0 通过，大于0 被拒绝，多少毫秒后再试
+     */
+    @SuppressWarnings("unchecked")
+    public long tryAcquire(RateLimitProperties.Rule rule, String key) {
+        RuleStats stats = ruleStats.computeIfAbsent(rule.getName(), name -> new RuleStats());
+        String limitKey = rule.getName() + ":" + key;
+        long capacity = rule.getAlgorithm() == RateLimitProperties.Algorithm.TOKEN_BUCKET
+            ? rule.bucketCapacity() : rule.getLimit();
+        long periodNanos = rule.getPeriod().toNanos();
+        LocalBucket bucket = localBuckets.get(limitKey);
+        if (bucket == null && localBuckets.size() < rateLimitProperties.getLocalMaxKeys()) {
+            bucket = localBuckets.computeIfAbsent(limitKey, k -> new LocalBucket(capacity));
+        }
+        if (bucket != null) {
+            long waitNanos = bucket.tryAcquire(capacity, (double) rule.getLimit() / periodNanos);
+            if (waitNanos > 0) {
+                stats.localRejected.increment();
+                return Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos));
+            }
+        }
+        try {
+            List<Long> result;
+            if (rule.getAlgorithm() == RateLimitProperties.Algorithm.TOKEN_BUCKET) {
+                result = stringRedisTemplate.execute(TOKEN_BUCKET_SCRIPT,
+                    Collections.singletonList(RATE_LIMIT_KEY + limitKey), String.valueOf(capacity),
+                    String.valueOf(rule.getLimit()), String.valueOf(rule.getPeriod().toMillis()), "1");
+            } else {
+                result = stringRedisTemplate.execute(SLIDING_WINDOW_SCRIPT,
+                    Collections.singletonList(RATE_LIMIT_KEY + limitKey), String.valueOf(rule.getLimit()),
+                    String.valueOf(rule.getPeriod().toMillis()), "1");
+            }
+            if (result != null && result.get(0) == 0) {
+                stats.rejected.increment();
+                return Math.max(1, result.get(1));
+            }
+        } catch (Exception e) {
+            stats.errors.increment();
+            log.error("限流规则{}访问redis失败, 放行", rule.getName(), e);
+        }
+        stats.allowed.increment();
+        return 0;
+    }
+
+    /**
+     * 已经补满的本地令牌桶和新建的一样，删掉
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void cleanUp() {
+        long now = System.nanoTime();
+        localBuckets.values().removeIf(bucket -> bucket.isIdle(now));
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("localKeys", localBuckets.size());
+        Map<String, Object> rules = new LinkedHashMap<>();
+        for (RateLimitProperties.Rule rule : rateLimitProperties.getRules()) {
+            RuleStats stats = ruleStats.get(rule.getName());
+            Map<String, Object> ruleMap = new LinkedHashMap<>();
+            ruleMap.put("allowed", stats == null ? 0 : stats.allowed.sum());
+            ruleMap.put("rejected", stats == null ? 0 : stats.rejected.sum());
+            ruleMap.put("localRejected", stats == null ? 0 : stats.localRejected.sum());
+            ruleMap.put("errors", stats == null ? 0 : stats.errors.sum());
+            rules.put(rule.getName(), ruleMap);
+        }
+        map.put("rules", rules);
+        return map;
+    }
+
+    private static class RuleStats {
+        private final LongAdder allowed = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder localRejected = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+    }
+
+    /**
+     * 本地令牌桶，容量和补充速度与全局规则相同，本地都超了全局一定也超了
+     */
+    private static class LocalBucket {
+        private double tokens;
+        private long lastNanos = System.nanoTime();
+        private long fullAtNanos = lastNanos;
+
+        private LocalBucket(long capacity) {
+            this.tokens = capacity;
+        }
+
+        /**
+         * @return 0 通过，否则还要等多少纳秒
+         */
+        private synchronized long tryAcquire(long capacity, double permitsPerNano) {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastNanos) * permitsPerNano);
+            lastNanos = now;
+            if (tokens >= 1) {
+                tokens -= 1;
+                fullAtNanos = now + (long) ((capacity - tokens) / permitsPerNano);
+                return 0;
+            }
+            return (long) Math.ceil((1 - tokens) / permitsPerNano);
+        }
+
+        private synchronized boolean isIdle(long now) {
+            return now - fullAtNanos >= 0;
+        }
+    }
+}
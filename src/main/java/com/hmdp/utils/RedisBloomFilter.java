@@ -0,0 +1,278 @@
+package com.hmdp.utils;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_CHANNEL;
+import static com.hmdp.utils.RedisConstants.BLOOM_KEY;
+
+/**
+ * 基于redis bitmap的布隆过滤器，用来拦截不存在的id，防止缓存穿透
+ * redis中的bitmap是所有节点共享的，本地再保存一份副本，判断时不需要访问redis
+ * 新增的id通过redis pub/sub广播给其他节点，本地副本只会增加不会减少
+ * 初始化完成前所有id都放行
+ * <p>
+ * bitmap旁边记录了numBits和numHashes，修改了预计元素数或误判率后，参数和redis里的不同，
+ * 启动时重新构建并替换，参数不同的节点不会加载对方的bitmap
+ */
+@Slf4j
+public class RedisBloomFilter {
+
+    private static final String RELOAD_MESSAGE = "reload";
+
+    private static final DefaultRedisScript<Long> MERGE_SCRIPT;
+
+    static {
+        MERGE_SCRIPT = new DefaultRedisScript<>();
+        MERGE_SCRIPT.setLocation(new ClassPathResource("bloom_merge.lua"));
+        MERGE_SCRIPT.setResultType(Long.class);
+    }
+
+    @Getter
+    private final String name;
+    private final String key;
+    private final String metaKey;
+    @Getter
+    private final String channel;
+    private final long expectedInsertions;
+    private final double fpp;
+    private final long numBits;
+    private final int numHashes;
+    private final AtomicLongArray bits;
+    private final StringRedisTemplate stringRedisTemplate;
+
+    @Getter
+    private volatile boolean ready;
+
+    public RedisBloomFilter(String name, long expectedInsertions, double fpp, StringRedisTemplate stringRedisTemplate) {
+        this.name = name;
+        this.key = BLOOM_KEY + name;
+        this.metaKey = key + ":meta";
+        this.channel = BLOOM_CHANNEL + name;
+        this.expectedInsertions = expectedInsertions;
+        this.fpp = fpp;
+        // m = -n*ln(p)/(ln2)^2，向上取整到64的倍数
+        long m = (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        this.numBits = Math.max(64, (m + 63) / 64 * 64);
+        // k = m/n*ln2
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / expectedInsertions * Math.log(2)));
+        this.bits = new AtomicLongArray((int) (numBits / 64));
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * 判断id是否可能存在，只查本地副本
+     *
+     * @return false表示一定不存在
+     */
+    public boolean mightContain(Long id) {
+        if (id == null) {
+            return false;
+        }
+        if (!ready) {
+            return true;
+        }
+        long h1 = mix(id);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+        for (int i = 0; i < numHashes; i++) {
+            long offset = ((h1 + i * h2) & Long.MAX_VALUE) % numBits;
+            if ((bits.get((int) (offset >>> 6)) & (1L << offset)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 新增id，写入本地副本和redis，并通知其他节点
+     */
+    public void put(Long id) {
+        long[] offsets = setLocal(id);
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (long offset : offsets) {
+                connection.stringCommands().setBit(rawKey, offset, true);
+            }
+            return null;
+        });
+        stringRedisTemplate.convertAndSend(channel, id.toString());
+    }
+
+    /**
+     * 初始化：redis里已经有参数相同的bitmap就直接加载，否则扫描全部id构建
+     *
+     * @param idScanner 按id顺序分批扫描，参数是上一批最后的id，返回空列表表示扫描结束
+     */
+    public void init(Function<Long, List<Long>> idScanner) {
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(key)) && sameLayout()) {
+            load();
+        } else {
+            build(idScanner);
+        }
+        ready = true;
+    }
+
+    /**
+     * 扫描全部id构建bitmap
+     * 先写到临时key，参数相同时用 BITOP OR 合并到正式key，不会丢掉构建期间其他节点新增的id；参数不同时替换
+     */
+    public void build(Function<Long, List<Long>> idScanner) {
+        long count = 0;
+        long lastId = 0;
+        List<Long> ids;
+        while (!(ids = idScanner.apply(lastId)).isEmpty()) {
+            for (Long id : ids) {
+                setLocal(id);
+            }
+            count += ids.size();
+            lastId = ids.get(ids.size() - 1);
+        }
+        String tmpKey = key + ":tmp";
+        byte[] rawTmpKey = tmpKey.getBytes(StandardCharsets.UTF_8);
+        byte[] value = toRedisBytes();
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.stringCommands().set(rawTmpKey, value);
+            return null;
+        });
+        Long replaced = stringRedisTemplate.execute(MERGE_SCRIPT, Arrays.asList(key, tmpKey, metaKey),
+            String.valueOf(numBits), String.valueOf(numHashes));
+        // 合并后的结果同步回本地，并通知其他节点重新加载
+        load();
+        stringRedisTemplate.convertAndSend(channel, RELOAD_MESSAGE);
+        log.info("布隆过滤器[{}]构建完成, 共{}个id, {}", name, count,
+            Long.valueOf(1).equals(replaced) ? "替换了参数不同的bitmap" : "已合并到现有bitmap");
+    }
+
+    /**
+     * 从redis加载bitmap，与本地副本取并集。参数和本节点不同时不加载
+     */
+    public void load() {
+        if (!sameLayout()) {
+            log.warn("布隆过滤器[{}]在redis里的参数和本节点(numBits={}, numHashes={})不同, 不加载", name, numBits,
+                numHashes);
+            return;
+        }
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        byte[] value = stringRedisTemplate.execute(
+            (RedisCallback<byte[]>) connection -> connection.stringCommands().get(rawKey));
+        if (value == null) {
+            return;
+        }
+        // redis的bit偏移是从每个字节的最高位开始的
+        int length = (int) Math.min(value.length, numBits / 8);
+        for (int i = 0; i < length; i++) {
+            int b = value[i] & 0xFF;
+            if (b == 0) {
+                continue;
+            }
+            for (int j = 0; j < 8; j++) {
+                if ((b & (0x80 >>> j)) != 0) {
+                    setBit((long) i * 8 + j);
+                }
+            }
+        }
+    }
+
+    /**
+     * redis里记录的numBits和numHashes是否和本节点相同
+     */
+    private boolean sameLayout() {
+        List<Object> meta = stringRedisTemplate.opsForHash().multiGet(metaKey, Arrays.asList("numBits", "numHashes"));
+        return String.valueOf(numBits).equals(meta.get(0)) && String.valueOf(numHashes).equals(meta.get(1));
+    }
+
+    /**
+     * 处理其他节点的广播
+     */
+    public void onMessage(String message) {
+        if (RELOAD_MESSAGE.equals(message)) {
+            load();
+            return;
+        }
+        setLocal(Long.valueOf(message));
+    }
+
+    /**
+     * 统计信息
+     */
+    public Map<String, Object> stats() {
+        long bitCount = 0;
+        for (int i = 0; i < bits.length(); i++) {
+            bitCount += Long.bitCount(bits.get(i));
+        }
+        double fillRatio = (double) bitCount / numBits;
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("name", name);
+        map.put("ready", ready);
+        map.put("expectedInsertions", expectedInsertions);
+        // 根据置位比例估算已插入的元素数
+        map.put("approximateInsertions",
+            fillRatio >= 1 ? expectedInsertions : Math.round(-(double) numBits / numHashes * Math.log(1 - fillRatio)));
+        map.put("numBits", numBits);
+        map.put("numHashes", numHashes);
+        map.put("memoryBytes", numBits / 8);
+        map.put("fillRatio", fillRatio);
+        map.put("configuredFpp", fpp);
+        // 当前实际的误判率约为 置位比例^k
+        map.put("currentFpp", Math.pow(fillRatio, numHashes));
+        return map;
+    }
+
+    private long[] setLocal(long id) {
+        long[] offsets = new long[numHashes];
+        long h1 = mix(id);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+        for (int i = 0; i < numHashes; i++) {
+            offsets[i] = ((h1 + i * h2) & Long.MAX_VALUE) % numBits;
+            setBit(offsets[i]);
+        }
+        return offsets;
+    }
+
+    private void setBit(long offset) {
+        int index = (int) (offset >>> 6);
+        long mask = 1L << offset;
+        long old;
+        do {
+            old = bits.get(index);
+            if ((old & mask) != 0) {
+                return;
+            }
+        } while (!bits.compareAndSet(index, old, old | mask));
+    }
+
+    private byte[] toRedisBytes() {
+        byte[] bytes = new byte[(int) (numBits / 8)];
+        for (int i = 0; i < bits.length(); i++) {
+            long word = bits.get(i);
+            while (word != 0) {
+                int bit = Long.numberOfTrailingZeros(word);
+                long offset = (long) i * 64 + bit;
+                bytes[(int) (offset >>> 3)] |= (byte) (0x80 >>> (offset & 7));
+                word &= word - 1;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * splitmix64的混淆函数，把连续的id打散
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -10,14 +10,33 @@ public class RedisConstants {
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
 
     public static final Long CACHE_SHOP_TYPE_TTL = 30L;
-    public static final String CACHE_SHOP_TYPE_KEY = "cache:shop:type";
+    public static final String CACHE_SHOP_TYPE_KEY = "cache:shop-type:";
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
+    public static final String LOCK_CACHE_KEY = "lock:";
+    public static final String LOCK_CHANNEL_KEY = "lock:channel:";
+    public static final String LOCK_SECKILL_RECOVER_KEY = "lock:seckill:recover";
+    public static final String LOCK_SECKILL_WARM_KEY = "lock:seckill:warm";
+
+    public static final String BLOOM_KEY = "bloom:";
+    public static final String BLOOM_CHANNEL = "bloom:channel:";
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_TIME_KEY = "seckill:time:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_STREAM_KEY = "stream.orders";
+    public static final String SECKILL_UNPAID_KEY = "seckill:unpaid";
+    /**
+     * 待支付订单的 优惠券id:用户id，订单一直没写入数据库时靠它归还库存
+     */
+    public static final String SECKILL_UNPAID_INFO_KEY = "seckill:unpaid:info";
+    public static final String RATE_LIMIT_KEY = "rate:limit:";
+    public static final String ID_SEQUENCE_KEY = "icr:";
+    public static final Long ID_SEQUENCE_TTL = 2L;
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
@@ -0,0 +1,165 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.incrementer.IdentifierGenerator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.ID_SEQUENCE_KEY;
+import static com.hmdp.utils.RedisConstants.ID_SEQUENCE_TTL;
+
+/**
+ * 全局唯一ID：符号位0 + 31位时间戳（秒） + 32位当天序列号
+ * <p>
+ * 序列号由redis按业务和日期自增，每个节点一次申请一段，号段用完之前不访问redis。
+ * 同一天内序列号不重复，时间戳又区分了不同的日期，所以ID全局唯一且大致按时间递增。
+ * 号段只在申请它的那一天使用，日期变化后丢弃剩余的号，重新向新一天的计数器申请
+ */
+@Component
+public class RedisIdWorker implements IdentifierGenerator {
+
+    /**
+     * 开始时间戳 2022-01-01 00:00:00 UTC
+     */
+    private static final long BEGIN_TIMESTAMP = 1640995200L;
+
+    /**
+     * 序列号的位数
+     */
+    private static final int COUNT_BITS = 32;
+
+    private static final long MAX_SEQUENCE = (1L << COUNT_BITS) - 1;
+
+    private static final long SECONDS_PER_DAY = TimeUnit.DAYS.toSeconds(1);
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
+    /**
+     * 申请号段：把计数器增加step，返回增加后的值，号段是 (返回值 - step, 返回值]
+     */
+    @FunctionalInterface
+    public interface SequenceAllocator {
+        long allocate(String key, long step);
+    }
+
+    private final SequenceAllocator allocator;
+
+    private final long step;
+
+    private final Clock clock;
+
+    /**
+     * 每个业务当前使用的号段
+     */
+    private final Map<String, Segment> segments = new ConcurrentHashMap<>();
+
+    private final Map<String, Object> allocateLocks = new ConcurrentHashMap<>();
+
+    @Autowired
+    public RedisIdWorker(StringRedisTemplate stringRedisTemplate, @Value("${hmdp.id.step:1000}") long step) {
+        this((key, count) -> {
+            Long end = stringRedisTemplate.opsForValue().increment(key, count);
+            if (end == null) {
+                throw new IllegalStateException("申请ID号段失败: " + key);
+            }
+            if (end == count) {
+                // 当天第一次申请，计数器过期时间留出时钟误差的余量
+                stringRedisTemplate.expire(key, ID_SEQUENCE_TTL, TimeUnit.DAYS);
+            }
+            return end;
+        }, step, Clock.systemUTC());
+    }
+
+    public RedisIdWorker(SequenceAllocator allocator, long step, Clock clock) {
+        if (step <= 0 || step > MAX_SEQUENCE) {
+            throw new IllegalArgumentException("step must be in [1, " + MAX_SEQUENCE + "]: " + step);
+        }
+        this.allocator = allocator;
+        this.step = step;
+        this.clock = clock;
+    }
+
+    /**
+     * 生成业务keyPrefix的下一个ID
+     */
+    public long nextId(String keyPrefix) {
+        long nowSecond = clock.millis() / 1000;
+        long day = Math.floorDiv(nowSecond, SECONDS_PER_DAY);
+        Segment segment = segments.get(keyPrefix);
+        if (segment != null && segment.day == day) {
+            long sequence = segment.next.getAndIncrement();
+            if (sequence <= segment.end) {
+                return compose(nowSecond, sequence);
+            }
+        }
+        return compose(nowSecond, allocate(keyPrefix, day));
+    }
+
+    /**
+     * 当前号段用完或者日期变化时申请新号段，同一业务只有一个线程访问redis
+     */
+    private long allocate(String keyPrefix, long day) {
+        synchronized (allocateLocks.computeIfAbsent(keyPrefix, k -> new Object())) {
+            // 其他线程可能已经申请好了
+            Segment segment = segments.get(keyPrefix);
+            if (segment != null && segment.day == day) {
+                long sequence = segment.next.getAndIncrement();
+                if (sequence <= segment.end) {
+                    return sequence;
+                }
+            }
+            String date = LocalDate.ofEpochDay(day).format(DATE_FORMATTER);
+            long end = allocator.allocate(ID_SEQUENCE_KEY + keyPrefix + ":" + date, step);
+            if (end > MAX_SEQUENCE) {
+                throw new IllegalStateException("业务" + keyPrefix + "在" + date + "的序列号已经用完");
+            }
+            segment = new Segment(day, end - step + 1, end);
+            long sequence = segment.next.getAndIncrement();
+            segments.put(keyPrefix, segment);
+            return sequence;
+        }
+    }
+
+    private static long compose(long nowSecond, long sequence) {
+        return (nowSecond - BEGIN_TIMESTAMP) << COUNT_BITS | sequence;
+    }
+
+    /**
+     * 从ID中取出生成时间（秒）
+     */
+    public static long extractEpochSecond(long id) {
+        return (id >>> COUNT_BITS) + BEGIN_TIMESTAMP;
+    }
+
+    /**
+     * 供mybatis-plus的IdType.ASSIGN_ID使用，按实体类名区分计数器
+     */
+    @Override
+    public Number nextId(Object entity) {
+        return nextId(entity.getClass().getSimpleName());
+    }
+
+    /**
+     * 某一天的号段 [next, end]
+     */
+    private static final class Segment {
+        private final long day;
+        private final AtomicLong next;
+        private final long end;
+
+        private Segment(long day, long start, long end) {
+            this.day = day;
+            this.next = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+}
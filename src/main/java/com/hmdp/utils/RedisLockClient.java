@@ -0,0 +1,268 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.thread.NamedThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.LOCK_CHANNEL_KEY;
+
+/**
+ * 基于redis的可重入分布式锁
+ * <p>
+ * 锁是一个hash，field是持有者 {节点id}:{线程id}，value是重入次数，获取和释放都用lua脚本原子执行，
+ * 只有持有者能释放，不会误删其他线程的锁。持有期间看门狗每 租期/3 续期一次，业务执行多久锁就持有多久，
+ * 节点宕机后锁在租期后自动释放。释放时通过pub/sub通知等待的线程，不用轮询
+ */
+@Slf4j
+@Component
+public class RedisLockClient {
+
+    private static final DefaultRedisScript<Long> LOCK_SCRIPT;
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+
+    static {
+        LOCK_SCRIPT = new DefaultRedisScript<>();
+        LOCK_SCRIPT.setLocation(new ClassPathResource("lock.lua"));
+        LOCK_SCRIPT.setResultType(Long.class);
+        UNLOCK_SCRIPT = new DefaultRedisScript<>();
+        UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        UNLOCK_SCRIPT.setResultType(Long.class);
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("lock_renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 等待释放通知的线程按锁名分散到这些监视器上
+     */
+    private static final int STRIPES = 64;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Value("${hmdp.lock.lease:30s}")
+    private Duration lease;
+
+    /**
+     * 区分不同节点上id相同的线程
+     */
+    private final String nodeId = UUID.fastUUID().toString(true);
+
+    private final ScheduledExecutorService watchdog =
+        Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("lock-watchdog-", true));
+
+    /**
+     * 本节点持有的锁和续期任务，key是 锁|持有者
+     */
+    private final Map<String, Renewal> renewals = new ConcurrentHashMap<>();
+
+    private final Object[] monitors = new Object[STRIPES];
+
+    /**
+     * 每个监视器收到的释放通知次数，由监视器保护，用来避免丢失获取锁和开始等待之间的通知
+     */
+    private final long[] generations = new long[STRIPES];
+
+    public RedisLockClient() {
+        for (int i = 0; i < STRIPES; i++) {
+            monitors[i] = new Object();
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        redisMessageListenerContainer.addMessageListener(
+            (message, pattern) -> onUnlock(new String(message.getBody(), StandardCharsets.UTF_8)),
+            new PatternTopic(LOCK_CHANNEL_KEY + "*"));
+    }
+
+    @PreDestroy
+    public void destroy() {
+        // 不再续期，没释放的锁在租期后过期
+        watchdog.shutdownNow();
+    }
+
+    /**
+     * 获取名为name的锁，锁对象很轻，可以每次使用时创建
+     */
+    public ILock getLock(String name) {
+        return new RedisLock(name);
+    }
+
+    private String currentOwner() {
+        return nodeId + ":" + Thread.currentThread().getId();
+    }
+
+    /**
+     * 执行获取锁的脚本
+     *
+     * @return null 获取成功，否则锁的剩余毫秒数
+     */
+    private Long acquire(String name, String owner) {
+        Long ttl = stringRedisTemplate.execute(LOCK_SCRIPT, Collections.singletonList(name), owner,
+            String.valueOf(lease.toMillis()));
+        if (ttl == null) {
+            startRenewal(name, owner);
+        }
+        return ttl;
+    }
+
+    private void startRenewal(String name, String owner) {
+        renewals.compute(name + "|" + owner, (key, renewal) -> {
+            if (renewal != null) {
+                renewal.holds++;
+                return renewal;
+            }
+            long period = Math.max(lease.toMillis() / 3, 1);
+            Renewal created = new Renewal();
+            created.future = watchdog.scheduleAtFixedRate(() -> renew(name, owner), period, period,
+                TimeUnit.MILLISECONDS);
+            return created;
+        });
+    }
+
+    private void renew(String name, String owner) {
+        try {
+            Long renewed = stringRedisTemplate.execute(RENEW_SCRIPT, Collections.singletonList(name), owner,
+                String.valueOf(lease.toMillis()));
+            if (renewed == null || renewed == 0) {
+                log.warn("锁{}已经不属于{}, 停止续期", name, owner);
+                stopRenewal(name, owner);
+            }
+        } catch (Exception e) {
+            // 下次再试，租期内恢复就不会丢锁
+            log.error("锁{}续期失败", name, e);
+        }
+    }
+
+    private void stopRenewal(String name, String owner) {
+        Renewal renewal = renewals.remove(name + "|" + owner);
+        if (renewal != null) {
+            renewal.future.cancel(false);
+        }
+    }
+
+    private void release(String name, String owner) {
+        Long result = stringRedisTemplate.execute(UNLOCK_SCRIPT,
+            Arrays.asList(name, LOCK_CHANNEL_KEY + name), owner, String.valueOf(lease.toMillis()));
+        if (result == null) {
+            // 锁已经过期或者被其他线程持有，不能删除
+            log.warn("释放锁{}时已经不是持有者{}", name, owner);
+            stopRenewal(name, owner);
+            return;
+        }
+        if (result == 1) {
+            stopRenewal(name, owner);
+            return;
+        }
+        renewals.computeIfPresent(name + "|" + owner, (key, renewal) -> {
+            renewal.holds--;
+            return renewal;
+        });
+    }
+
+    /**
+     * 收到其他线程释放锁的通知，唤醒等待的线程重新尝试
+     */
+    private void onUnlock(String name) {
+        int stripe = stripe(name);
+        synchronized (monitors[stripe]) {
+            generations[stripe]++;
+            monitors[stripe].notifyAll();
+        }
+    }
+
+    private static int stripe(String name) {
+        return (name.hashCode() & Integer.MAX_VALUE) % STRIPES;
+    }
+
+    private long generation(int stripe) {
+        synchronized (monitors[stripe]) {
+            return generations[stripe];
+        }
+    }
+
+    private static class Renewal {
+        private int holds = 1;
+        private ScheduledFuture<?> future;
+    }
+
+    private class RedisLock implements ILock {
+
+        private final String name;
+
+        private RedisLock(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public boolean tryLock() {
+            return acquire(name, currentOwner()) == null;
+        }
+
+        @Override
+        public boolean tryLock(long waitTime, TimeUnit unit) {
+            String owner = currentOwner();
+            long deadline = System.nanoTime() + unit.toNanos(waitTime);
+            int stripe = stripe(name);
+            while (true) {
+                long generation = generation(stripe);
+                Long ttl = acquire(name, owner);
+                if (ttl == null) {
+                    return true;
+                }
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    return false;
+                }
+                // 最多等到锁过期，通知丢了也不会一直等下去
+                long waitMillis = Math.max(1, ttl > 0 ? Math.min(ttl, remaining) : 1);
+                try {
+                    synchronized (monitors[stripe]) {
+                        if (generations[stripe] == generation) {
+                            monitors[stripe].wait(waitMillis);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+
+        @Override
+        public void unlock() {
+            release(name, currentOwner());
+        }
+
+        @Override
+        public boolean isHeldByCurrentThread() {
+            return stringRedisTemplate.opsForHash().hasKey(name, currentOwner());
+        }
+    }
+}
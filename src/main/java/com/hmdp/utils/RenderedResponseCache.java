@@ -0,0 +1,106 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.dto.Result;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存序列化好的 Result.ok(data) 响应体，命中时跳过Jackson序列化
+ * 本地缓存里的对象是共享的，数据变化后会换成新的对象，所以和缓存时是同一个对象并且ETag相同就说明没变
+ */
+@Component
+public class RenderedResponseCache {
+
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final LRUCache<String, Rendered> cache;
+
+    private final LongAdder hit = new LongAdder();
+    private final LongAdder miss = new LongAdder();
+    private final LongAdder notModified = new LongAdder();
+    private final LongAdder bytesSaved = new LongAdder();
+    private final LongAdder serializeNanos = new LongAdder();
+
+    public RenderedResponseCache(ObjectMapper objectMapper,
+                                 @Value("${hmdp.cache.rendered.enabled:true}") boolean enabled,
+                                 @Value("${hmdp.cache.rendered.maximum-size:10000}") int maximumSize) {
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.cache = CacheUtil.newLRUCache(maximumSize);
+    }
+
+    /**
+     * 取序列化好的响应体，没有缓存或者数据变了就重新序列化
+     */
+    public byte[] render(String key, Object data, String etag) {
+        if (enabled) {
+            Rendered rendered = cache.get(key, false);
+            if (rendered != null && rendered.data == data && rendered.etag.equals(etag)) {
+                hit.increment();
+                return rendered.body;
+            }
+        }
+        miss.increment();
+        long start = System.nanoTime();
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(Result.ok(data));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("序列化响应失败", e);
+        }
+        serializeNanos.add(System.nanoTime() - start);
+        if (enabled) {
+            cache.put(key, new Rendered(data, etag, body));
+        }
+        return body;
+    }
+
+    /**
+     * 记录一次304，缓存过响应体时计入节省的字节数
+     */
+    public void recordNotModified(String key) {
+        notModified.increment();
+        Rendered rendered = cache.get(key, false);
+        if (rendered != null) {
+            bytesSaved.add(rendered.body.length);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        long hits = hit.sum();
+        long misses = miss.sum();
+        double avgSerializeNanos = misses == 0 ? 0D : (double) serializeNanos.sum() / misses;
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("enabled", enabled);
+        map.put("size", cache.size());
+        map.put("hit", hits);
+        map.put("miss", misses);
+        map.put("hitRate", hits + misses == 0 ? 0D : (double) hits / (hits + misses));
+        map.put("avgSerializeMicros", avgSerializeNanos / 1000);
+        // 命中和304都省掉了一次序列化
+        map.put("serializeMillisSaved", (hits + notModified.sum()) * avgSerializeNanos / 1_000_000);
+        map.put("notModified", notModified.sum());
+        map.put("bytesSaved", bytesSaved.sum());
+        return map;
+    }
+
+    private static final class Rendered {
+        final Object data;
+        final String etag;
+        final byte[] body;
+
+        Rendered(Object data, String etag, byte[] body) {
+            this.data = data;
+            this.etag = etag;
+            this.body = body;
+        }
+    }
+}
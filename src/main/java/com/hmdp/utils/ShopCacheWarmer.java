@@ -0,0 +1,129 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
+
+/**
+ * 商铺缓存预热
+ * 按id顺序分批扫描tb_shop（keyset，不用offset），每批通过一次pipeline写入逻辑过期缓存
+ * 在独立线程里执行，不占用请求线程
+ */
+@Slf4j
+@Component
+public class ShopCacheWarmer implements ApplicationRunner {
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Value("${hmdp.cache.warm-up.on-startup:false}")
+    private boolean warmUpOnStartup;
+
+    @Value("${hmdp.cache.warm-up.batch-size:1000}")
+    private int batchSize;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    private volatile long total;
+    private volatile long warmed;
+    private volatile long startTime;
+    private volatile long endTime;
+    private volatile String error;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (warmUpOnStartup) {
+            start();
+        }
+    }
+
+    /**
+     * 启动预热
+     *
+     * @return 已经在预热中返回false
+     */
+    public boolean start() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        total = 0;
+        warmed = 0;
+        error = null;
+        startTime = System.currentTimeMillis();
+        endTime = 0;
+        Thread thread = new Thread(this::warmUp, "shop-cache-warm-up");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    private void warmUp() {
+        try {
+            total = shopMapper.selectCount(null);
+            long lastId = 0;
+            while (true) {
+                List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                    .gt("id", lastId).orderByAsc("id").last("LIMIT " + batchSize));
+                if (shops.isEmpty()) {
+                    break;
+                }
+                Map<String, Shop> batch = new HashMap<>(shops.size() * 4 / 3 + 1);
+                for (Shop shop : shops) {
+                    batch.put(CACHE_SHOP_KEY + shop.getId(), shop);
+                }
+                cacheClient.setWithLogicalExpireBatch(batch, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+                lastId = shops.get(shops.size() - 1).getId();
+                warmed += shops.size();
+                if (warmed % (batchSize * 100L) == 0) {
+                    log.info("商铺缓存预热中: {}", progress());
+                }
+                if (shops.size() < batchSize) {
+                    break;
+                }
+            }
+            log.info("商铺缓存预热完成: {}", progress());
+        } catch (Exception e) {
+            error = e.getMessage();
+            log.error("商铺缓存预热失败, 已预热{}条", warmed, e);
+        } finally {
+            endTime = System.currentTimeMillis();
+            running.set(false);
+        }
+    }
+
+    /**
+     * 预热进度
+     */
+    public Map<String, Object> progress() {
+        long end = endTime == 0 ? System.currentTimeMillis() : endTime;
+        long elapsed = startTime == 0 ? 0 : end - startTime;
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("running", running.get());
+        map.put("total", total);
+        map.put("warmed", warmed);
+        map.put("progress", total == 0 ? 0D : (double) warmed / total);
+        map.put("elapsedMillis", elapsed);
+        map.put("throughputPerSecond", elapsed == 0 ? 0D : warmed * 1000D / elapsed);
+        map.put("error", error);
+        return map;
+    }
+}
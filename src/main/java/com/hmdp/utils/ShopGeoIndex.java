@@ -0,0 +1,160 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResult;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.domain.geo.GeoReference;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
+
+/**
+ * 按商铺类型划分的GEO索引，key为 shop:geo:{typeId}，成员为商铺id
+ * 启动时在后台线程里按id顺序分批扫描tb_shop，每批一次pipeline写入
+ */
+@Slf4j
+@Component
+public class ShopGeoIndex implements ApplicationRunner {
+
+    private static final int SCAN_BATCH_SIZE = 10000;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Value("${hmdp.shop.geo.load-on-startup:true}")
+    private boolean loadOnStartup;
+
+    @Value("${hmdp.shop.geo.radius:5000}")
+    private double radiusMeters;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!loadOnStartup) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                load();
+            } catch (Exception e) {
+                log.error("加载商铺GEO索引失败", e);
+            }
+        }, "shop-geo-load");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 全量加载，GEOADD是幂等的，重复加载只会覆盖坐标
+     *
+     * @return 加载的商铺数
+     */
+    public long load() {
+        long lastId = 0;
+        long loaded = 0;
+        while (true) {
+            List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>().select("id", "type_id", "x", "y")
+                .gt("id", lastId).orderByAsc("id").last("LIMIT " + SCAN_BATCH_SIZE));
+            if (shops.isEmpty()) {
+                break;
+            }
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (Shop shop : shops) {
+                    if (hasLocation(shop)) {
+                        connection.geoCommands().geoAdd(rawKey(shop.getTypeId()),
+                            new Point(shop.getX(), shop.getY()), rawMember(shop.getId()));
+                    }
+                }
+                return null;
+            });
+            lastId = shops.get(shops.size() - 1).getId();
+            loaded += shops.size();
+            if (shops.size() < SCAN_BATCH_SIZE) {
+                break;
+            }
+        }
+        log.info("商铺GEO索引加载完成, 共{}条", loaded);
+        return loaded;
+    }
+
+    /**
+     * 新增商铺或者坐标变化
+     */
+    public void add(Shop shop) {
+        if (hasLocation(shop)) {
+            stringRedisTemplate.opsForGeo().add(SHOP_GEO_KEY + shop.getTypeId(), new Point(shop.getX(), shop.getY()),
+                shop.getId().toString());
+        }
+    }
+
+    /**
+     * 商铺更新后同步，类型变了要从原来的集合里移除
+     *
+     * @param oldTypeId 更新前的类型
+     * @param shop      更新后的完整数据
+     */
+    public void update(Long oldTypeId, Shop shop) {
+        if (oldTypeId != null && !Objects.equals(oldTypeId, shop.getTypeId())) {
+            stringRedisTemplate.opsForGeo().remove(SHOP_GEO_KEY + oldTypeId, shop.getId().toString());
+        }
+        add(shop);
+    }
+
+    /**
+     * 按距离由近到远查询附近的商铺
+     * GEOSEARCH 只能限制返回条数，不能跳过，所以取前end条后在内存里截取[from, end)
+     *
+     * @return 商铺id到距离（米）的有序映射，索引不存在时返回null
+     */
+    public Map<Long, Double> search(Long typeId, double x, double y, int from, int end) {
+        String key = SHOP_GEO_KEY + typeId;
+        GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo().search(key,
+            GeoReference.fromCoordinate(x, y), new Distance(radiusMeters, RedisGeoCommands.DistanceUnit.METERS),
+            RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance().sortAscending().limit(end));
+        List<GeoResult<RedisGeoCommands.GeoLocation<String>>> content =
+            results == null ? Collections.emptyList() : results.getContent();
+        // 第一页没有结果时才区分是附近没有商铺还是索引不存在，翻页时不多查一次
+        if (content.isEmpty() && from == 0 && !Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+            return null;
+        }
+        Map<Long, Double> distances = new LinkedHashMap<>();
+        for (int i = from; i < content.size(); i++) {
+            GeoResult<RedisGeoCommands.GeoLocation<String>> result = content.get(i);
+            distances.put(Long.valueOf(result.getContent().getName()), result.getDistance().getValue());
+        }
+        return distances;
+    }
+
+    private static boolean hasLocation(Shop shop) {
+        return shop.getId() != null && shop.getTypeId() != null && shop.getX() != null && shop.getY() != null;
+    }
+
+    private static byte[] rawKey(Long typeId) {
+        return (SHOP_GEO_KEY + typeId).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] rawMember(Long id) {
+        return id.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,517 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 进程内的商铺空间索引，按类型把商铺坐标划进固定大小的经纬度网格
+ * 每个格子里的商铺放在不可变的基本类型数组里，写入时只复制并替换受影响的格子，查询不加锁也不访问redis
+ * 查询从所在网格开始一圈一圈往外找，找够了并且外圈不可能更近时停止
+ * <p>
+ * 本节点的商铺写入立即生效，其他节点的写入靠定时全量重新加载。重新加载期间的写入先记下来，
+ * 新索引替换上去后再重放一遍，不会被加载开始时的旧数据覆盖
+ */
+@Slf4j
+@Component
+public class ShopGridIndex implements ApplicationRunner {
+
+    private static final int SCAN_BATCH_SIZE = 10000;
+    /**
+     * 和redis GEO使用的地球半径一致，保证两种方式算出的距离相同
+     */
+    private static final double EARTH_RADIUS_METERS = 6372797.560856;
+    private static final double METERS_PER_DEGREE = EARTH_RADIUS_METERS * Math.PI / 180;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Value("${hmdp.shop.grid.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * 网格边长，单位是度，0.01度大约1公里
+     */
+    @Value("${hmdp.shop.grid.cell-degrees:0.01}")
+    private double cellDegrees;
+
+    @Value("${hmdp.shop.geo.radius:5000}")
+    private double radiusMeters;
+
+    private final Map<Long, Grid> grids = new ConcurrentHashMap<>();
+
+    /**
+     * 所有写入都在这个锁里执行
+     */
+    private final Object writeLock = new Object();
+
+    /**
+     * 重新加载期间的写入，加载完后重放，不在加载时为null
+     */
+    private List<Runnable> pendingWrites;
+
+    private volatile boolean ready;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            return;
+        }
+        Thread thread = new Thread(this::reload, "shop-grid-load");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public boolean isReady() {
+        return enabled && ready;
+    }
+
+    /**
+     * 全量重新加载，按id顺序分批扫描tb_shop，加载完再替换
+     */
+    @Scheduled(initialDelayString = "${hmdp.shop.grid.reload-interval:300000}",
+        fixedDelayString = "${hmdp.shop.grid.reload-interval:300000}")
+    public void reload() {
+        if (!enabled) {
+            return;
+        }
+        synchronized (writeLock) {
+            if (pendingWrites != null) {
+                // 已经在加载了
+                return;
+            }
+            pendingWrites = new ArrayList<>();
+        }
+        try {
+            Map<Long, Map<Long, double[]>> loaded = new HashMap<>();
+            long lastId = 0;
+            while (true) {
+                List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>().select("id", "type_id", "x", "y")
+                    .gt("id", lastId).orderByAsc("id").last("LIMIT " + SCAN_BATCH_SIZE));
+                for (Shop shop : shops) {
+                    if (hasLocation(shop)) {
+                        loaded.computeIfAbsent(shop.getTypeId(), k -> new HashMap<>())
+                            .put(shop.getId(), new double[] {shop.getX(), shop.getY()});
+                    }
+                }
+                if (shops.size() < SCAN_BATCH_SIZE) {
+                    break;
+                }
+                lastId = shops.get(shops.size() - 1).getId();
+            }
+            Map<Long, Grid> rebuilt = new HashMap<>(loaded.size() * 4 / 3 + 1);
+            loaded.forEach((typeId, typePoints) -> rebuilt.put(typeId, Grid.build(typePoints, cellDegrees)));
+            synchronized (writeLock) {
+                // 已经没有商铺的类型也要去掉，加载期间新建的类型会在重放时重新建出来
+                grids.keySet().retainAll(rebuilt.keySet());
+                grids.putAll(rebuilt);
+                // 扫描期间的写入可能没有被扫到，重放一遍，写入是幂等的
+                pendingWrites.forEach(Runnable::run);
+            }
+            ready = true;
+            log.info("商铺网格索引加载完成, 类型数{}, 商铺数{}", loaded.size(),
+                loaded.values().stream().mapToInt(Map::size).sum());
+        } catch (Exception e) {
+            log.error("加载商铺网格索引失败", e);
+        } finally {
+            synchronized (writeLock) {
+                pendingWrites = null;
+            }
+        }
+    }
+
+    /**
+     * 新增商铺或者坐标变化
+     */
+    public void add(Shop shop) {
+        if (!enabled || !hasLocation(shop)) {
+            return;
+        }
+        Long typeId = shop.getTypeId();
+        long id = shop.getId();
+        double x = shop.getX();
+        double y = shop.getY();
+        write(() -> grids.computeIfAbsent(typeId, k -> new Grid(cellDegrees)).put(id, x, y));
+    }
+
+    /**
+     * 商铺更新后同步，类型变了要从原来的类型里移除
+     *
+     * @param oldTypeId 更新前的类型
+     * @param shop      更新后的完整数据
+     */
+    public void update(Long oldTypeId, Shop shop) {
+        if (!enabled) {
+            return;
+        }
+        if (oldTypeId != null && !Objects.equals(oldTypeId, shop.getTypeId())) {
+            long id = shop.getId();
+            write(() -> {
+                Grid grid = grids.get(oldTypeId);
+                if (grid != null) {
+                    grid.remove(id);
+                }
+            });
+        }
+        add(shop);
+    }
+
+    private void write(Runnable action) {
+        synchronized (writeLock) {
+            action.run();
+            if (pendingWrites != null) {
+                pendingWrites.add(action);
+            }
+        }
+    }
+
+    /**
+     * 距离最近的k个商铺
+     *
+     * @return 商铺id到距离（米）的有序映射，由近到远
+     */
+    public Map<Long, Double> nearest(Long typeId, double x, double y, int k) {
+        return withinRadius(typeId, x, y, Double.MAX_VALUE, k);
+    }
+
+    /**
+     * 半径范围内最近的limit个商铺
+     *
+     * @return 商铺id到距离（米）的有序映射，由近到远
+     */
+    public Map<Long, Double> withinRadius(Long typeId, double x, double y, double radiusMeters, int limit) {
+        Grid grid = grids.get(typeId);
+        if (grid == null || limit <= 0) {
+            return new LinkedHashMap<>();
+        }
+        return grid.search(x, y, radiusMeters, limit);
+    }
+
+    /**
+     * 和 ShopGeoIndex#search 相同的分页语义：搜索半径内由近到远的第[from, end)个
+     */
+    public Map<Long, Double> page(Long typeId, double x, double y, int from, int end) {
+        Map<Long, Double> result = new LinkedHashMap<>();
+        int i = 0;
+        for (Map.Entry<Long, Double> entry : withinRadius(typeId, x, y, radiusMeters, end).entrySet()) {
+            if (i++ >= from) {
+                result.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 每个类型的商铺数
+     */
+    public Map<Long, Integer> sizes() {
+        Map<Long, Integer> sizes = new LinkedHashMap<>();
+        grids.forEach((typeId, grid) -> sizes.put(typeId, grid.size));
+        return sizes;
+    }
+
+    private static boolean hasLocation(Shop shop) {
+        return shop.getId() != null && shop.getTypeId() != null && shop.getX() != null && shop.getY() != null;
+    }
+
+    static double distance(double x1, double y1, double x2, double y2) {
+        double lat1 = Math.toRadians(y1);
+        double lat2 = Math.toRadians(y2);
+        double u = Math.sin((lat2 - lat1) / 2);
+        double v = Math.sin(Math.toRadians(x2 - x1) / 2);
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.sqrt(u * u + Math.cos(lat1) * Math.cos(lat2) * v * v));
+    }
+
+    /**
+     * 一个类型的网格，格子和边界都是不可变对象，写入时整体替换，查询不加锁
+     */
+    private static final class Grid {
+        private final double cellDegrees;
+        /**
+         * 商铺id -> {经度, 纬度}，只在写锁里访问，用来找到商铺原来所在的格子
+         */
+        private final Map<Long, double[]> points = new HashMap<>();
+        private final Map<Long, Cell> cells = new ConcurrentHashMap<>();
+        private volatile Bounds bounds;
+        private volatile int size;
+
+        Grid(double cellDegrees) {
+            this.cellDegrees = cellDegrees;
+        }
+
+        /**
+         * 批量构建，每个格子只创建一次
+         */
+        static Grid build(Map<Long, double[]> points, double cellDegrees) {
+            Grid grid = new Grid(cellDegrees);
+            Map<Long, List<Long>> byCell = new HashMap<>();
+            Bounds bounds = null;
+            for (Map.Entry<Long, double[]> entry : points.entrySet()) {
+                double x = entry.getValue()[0];
+                double y = entry.getValue()[1];
+                bounds = Bounds.expand(bounds, grid.cell(x), grid.cell(y), y, cellDegrees);
+                byCell.computeIfAbsent(key(grid.cell(x), grid.cell(y)), k -> new ArrayList<>()).add(entry.getKey());
+            }
+            byCell.forEach((key, ids) -> {
+                long[] cellIds = new long[ids.size()];
+                double[] xs = new double[ids.size()];
+                double[] ys = new double[ids.size()];
+                for (int i = 0; i < cellIds.length; i++) {
+                    double[] point = points.get(ids.get(i));
+                    cellIds[i] = ids.get(i);
+                    xs[i] = point[0];
+                    ys[i] = point[1];
+                }
+                grid.cells.put(key, new Cell(cellIds, xs, ys));
+            });
+            grid.points.putAll(points);
+            grid.bounds = bounds;
+            grid.size = points.size();
+            return grid;
+        }
+
+        /**
+         * 新增或移动一个商铺，只替换原来和现在所在的格子
+         */
+        void put(long id, double x, double y) {
+            double[] old = points.put(id, new double[] {x, y});
+            if (old != null) {
+                removeFromCell(id, old);
+            }
+            int cx = cell(x);
+            int cy = cell(y);
+            // 先扩大边界再放进格子，查询时不会漏掉新的格子
+            bounds = Bounds.expand(bounds, cx, cy, y, cellDegrees);
+            cells.compute(key(cx, cy), (k, cell) -> cell == null
+                ? new Cell(new long[] {id}, new double[] {x}, new double[] {y}) : cell.with(id, x, y));
+            size = points.size();
+        }
+
+        void remove(long id) {
+            double[] old = points.remove(id);
+            if (old != null) {
+                removeFromCell(id, old);
+                size = points.size();
+            }
+        }
+
+        private void removeFromCell(long id, double[] point) {
+            cells.computeIfPresent(key(cell(point[0]), cell(point[1])), (k, cell) -> cell.without(id));
+        }
+
+        Map<Long, Double> search(double x, double y, double radiusMeters, int limit) {
+            Map<Long, Double> result = new LinkedHashMap<>();
+            Bounds b = bounds;
+            int total = size;
+            if (b == null || total == 0) {
+                return result;
+            }
+            int cx = cell(x);
+            int cy = cell(y);
+            // 覆盖整个网格需要的圈数
+            int maxRing = Math.max(Math.max(cx - b.minCx, b.maxCx - cx), Math.max(cy - b.minCy, b.maxCy - cy));
+            // 大顶堆，保存目前最近的limit个
+            int capacity = Math.min(limit, total);
+            double[] heapDistance = new double[capacity];
+            long[] heapIds = new long[capacity];
+            int size = 0;
+            for (int ring = 0; ring <= maxRing; ring++) {
+                // 这一圈里的点至少有(ring - 1)个网格远
+                if ((ring - 1) * b.minCellMeters > radiusMeters) {
+                    break;
+                }
+                for (int dx = -ring; dx <= ring; dx++) {
+                    boolean edge = dx == -ring || dx == ring;
+                    int step = edge ? 1 : 2 * ring;
+                    for (int dy = -ring; dy <= ring; dy += step) {
+                        Cell c = cells.get(key(cx + dx, cy + dy));
+                        if (c == null) {
+                            continue;
+                        }
+                        for (int p = 0; p < c.ids.length; p++) {
+                            double d = distance(x, y, c.xs[p], c.ys[p]);
+                            if (d > radiusMeters) {
+                                continue;
+                            }
+                            if (size < capacity) {
+                                heapDistance[size] = d;
+                                heapIds[size] = c.ids[p];
+                                siftUp(heapDistance, heapIds, size++);
+                            } else if (d < heapDistance[0]) {
+                                heapDistance[0] = d;
+                                heapIds[0] = c.ids[p];
+                                siftDown(heapDistance, heapIds, size);
+                            }
+                        }
+                    }
+                }
+                // 外圈的点至少有ring个网格远，找够了并且都比它近就不用再找了
+                if (size == capacity && heapDistance[0] <= ring * b.minCellMeters) {
+                    break;
+                }
+            }
+            // 堆顶依次弹出得到由远到近的顺序，倒过来填
+            long[] sortedIds = new long[size];
+            double[] sortedDistances = new double[size];
+            for (int j = size - 1; j >= 0; j--) {
+                sortedIds[j] = heapIds[0];
+                sortedDistances[j] = heapDistance[0];
+                heapDistance[0] = heapDistance[j];
+                heapIds[0] = heapIds[j];
+                siftDown(heapDistance, heapIds, j);
+            }
+            for (int j = 0; j < size; j++) {
+                result.put(sortedIds[j], sortedDistances[j]);
+            }
+            return result;
+        }
+
+        private int cell(double degrees) {
+            return (int) Math.floor(degrees / cellDegrees);
+        }
+
+        private static long key(int cx, int cy) {
+            return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+        }
+
+        private static void siftUp(double[] distances, long[] ids, int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (distances[parent] >= distances[i]) {
+                    return;
+                }
+                swap(distances, ids, parent, i);
+                i = parent;
+            }
+        }
+
+        private static void siftDown(double[] distances, long[] ids, int size) {
+            int i = 0;
+            while (true) {
+                int largest = i;
+                int left = 2 * i + 1;
+                int right = left + 1;
+                if (left < size && distances[left] > distances[largest]) {
+                    largest = left;
+                }
+                if (right < size && distances[right] > distances[largest]) {
+                    largest = right;
+                }
+                if (largest == i) {
+                    return;
+                }
+                swap(distances, ids, largest, i);
+                i = largest;
+            }
+        }
+
+        private static void swap(double[] distances, long[] ids, int a, int b) {
+            double d = distances[a];
+            distances[a] = distances[b];
+            distances[b] = d;
+            long id = ids[a];
+            ids[a] = ids[b];
+            ids[b] = id;
+        }
+    }
+
+    /**
+     * 一个格子里的商铺，创建后不再修改
+     */
+    private static final class Cell {
+        private final long[] ids;
+        private final double[] xs;
+        private final double[] ys;
+
+        Cell(long[] ids, double[] xs, double[] ys) {
+            this.ids = ids;
+            this.xs = xs;
+            this.ys = ys;
+        }
+
+        Cell with(long id, double x, double y) {
+            int n = ids.length;
+            Cell cell = new Cell(Arrays.copyOf(ids, n + 1), Arrays.copyOf(xs, n + 1), Arrays.copyOf(ys, n + 1));
+            cell.ids[n] = id;
+            cell.xs[n] = x;
+            cell.ys[n] = y;
+            return cell;
+        }
+
+        /**
+         * @return 移除后为空时返回null，格子被删除
+         */
+        Cell without(long id) {
+            int n = ids.length;
+            for (int i = 0; i < n; i++) {
+                if (ids[i] != id) {
+                    continue;
+                }
+                if (n == 1) {
+                    return null;
+                }
+                long[] newIds = new long[n - 1];
+                double[] newXs = new double[n - 1];
+                double[] newYs = new double[n - 1];
+                System.arraycopy(ids, 0, newIds, 0, i);
+                System.arraycopy(ids, i + 1, newIds, i, n - i - 1);
+                System.arraycopy(xs, 0, newXs, 0, i);
+                System.arraycopy(xs, i + 1, newXs, i, n - i - 1);
+                System.arraycopy(ys, 0, newYs, 0, i);
+                System.arraycopy(ys, i + 1, newYs, i, n - i - 1);
+                return new Cell(newIds, newXs, newYs);
+            }
+            return this;
+        }
+    }
+
+    /**
+     * 网格的范围，只会扩大。minCellMeters是网格在经纬两个方向上的最小边长（米），
+     * 经度方向按最高纬度算，用于估算外圈的最近距离
+     */
+    private static final class Bounds {
+        private final int minCx;
+        private final int maxCx;
+        private final int minCy;
+        private final int maxCy;
+        private final double maxAbsLat;
+        private final double minCellMeters;
+
+        private Bounds(int minCx, int maxCx, int minCy, int maxCy, double maxAbsLat, double cellDegrees) {
+            this.minCx = minCx;
+            this.maxCx = maxCx;
+            this.minCy = minCy;
+            this.maxCy = maxCy;
+            this.maxAbsLat = maxAbsLat;
+            this.minCellMeters = cellDegrees * METERS_PER_DEGREE * Math.cos(Math.toRadians(Math.min(maxAbsLat, 89)));
+        }
+
+        static Bounds expand(Bounds b, int cx, int cy, double y, double cellDegrees) {
+            double absLat = Math.abs(y) + cellDegrees;
+            if (b == null) {
+                return new Bounds(cx, cx, cy, cy, absLat, cellDegrees);
+            }
+            if (cx >= b.minCx && cx <= b.maxCx && cy >= b.minCy && cy <= b.maxCy && absLat <= b.maxAbsLat) {
+                return b;
+            }
+            return new Bounds(Math.min(b.minCx, cx), Math.max(b.maxCx, cx), Math.min(b.minCy, cy),
+                Math.max(b.maxCy, cy), Math.max(b.maxAbsLat, absLat), cellDegrees);
+        }
+    }
+}
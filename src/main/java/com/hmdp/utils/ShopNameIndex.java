@@ -0,0 +1,590 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * 进程内的商铺名称倒排索引，代替 LIKE '%name%' 的全表扫描
+ * <p>
+ * 名称和商圈按单字和相邻两个字切分，每个词一个倒排表。商铺按 评分降序、销量降序、id升序 排好后编号，
+ * 倒排表里存的是编号，所以求交集时天然就是排好序的结果，凑够一页就可以停止。
+ * 倒排表按128个一块做差值varint压缩，每块记录第一个编号，跳跃时二分查找块
+ * <p>
+ * 快照不可变，写入先进增量表，查询时合并快照和增量，增量超过阈值后在后台合并出新快照；
+ * 其他节点的写入靠定时全量重新加载
+ */
+@Slf4j
+@Component
+public class ShopNameIndex implements ApplicationRunner {
+
+    private static final int SCAN_BATCH_SIZE = 10000;
+    private static final int BLOCK_SIZE = 128;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Value("${hmdp.shop.name-index.enabled:true}")
+    private boolean enabled;
+
+    @Value("${hmdp.shop.name-index.merge-threshold:1000}")
+    private int mergeThreshold;
+
+    private volatile Snapshot snapshot;
+
+    /**
+     * 快照之后新增或修改的商铺，会覆盖快照里的同一个商铺
+     * 合并后整个换成新的表，ConcurrentHashMap不会缩容，清空后遍历依然很慢
+     */
+    private volatile Map<Long, Doc> delta = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean merging = new AtomicBoolean(false);
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            return;
+        }
+        Thread thread = new Thread(this::reload, "shop-name-index-load");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public boolean isReady() {
+        return enabled && snapshot != null;
+    }
+
+    /**
+     * 全量重新加载，按id顺序分批扫描tb_shop
+     */
+    @Scheduled(initialDelayString = "${hmdp.shop.name-index.reload-interval:300000}",
+        fixedDelayString = "${hmdp.shop.name-index.reload-interval:300000}")
+    public void reload() {
+        if (!enabled || !merging.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            List<Doc> docs = new ArrayList<>();
+            long lastId = 0;
+            while (true) {
+                List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                    .select("id", "name", "area", "score", "sold")
+                    .gt("id", lastId).orderByAsc("id").last("LIMIT " + SCAN_BATCH_SIZE));
+                shops.forEach(shop -> docs.add(new Doc(shop)));
+                if (shops.size() < SCAN_BATCH_SIZE) {
+                    break;
+                }
+                lastId = shops.get(shops.size() - 1).getId();
+            }
+            // 加载期间的写入还留在增量表里
+            Map<Long, Doc> pending = new HashMap<>(delta);
+            swap(docs, pending);
+            log.info("商铺名称索引加载完成, 商铺数{}, 词数{}, 耗时{}ms", snapshot.docs.length, snapshot.postings.size(),
+                System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.error("加载商铺名称索引失败", e);
+        } finally {
+            merging.set(false);
+        }
+    }
+
+    /**
+     * 增量表太大时合并出新快照，不查库
+     */
+    @Scheduled(initialDelay = 10000, fixedDelay = 10000)
+    public void merge() {
+        Snapshot current = snapshot;
+        if (current == null || delta.size() < mergeThreshold || !merging.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            Map<Long, Doc> pending = new HashMap<>(delta);
+            swap(Arrays.asList(current.docs), pending);
+        } catch (Exception e) {
+            log.error("合并商铺名称索引失败", e);
+        } finally {
+            merging.set(false);
+        }
+    }
+
+    /**
+     * 新增或修改了商铺
+     *
+     * @param shop 修改后的完整数据
+     */
+    public void put(Shop shop) {
+        if (!enabled || shop.getId() == null) {
+            return;
+        }
+        synchronized (this) {
+            delta.put(shop.getId(), new Doc(shop));
+        }
+    }
+
+    /**
+     * 按关键字搜索，结果按 评分、销量、id 排序
+     *
+     * @param keyword 关键字，为空时返回所有商铺
+     * @param after   上一页最后一条的位置，第一页传null
+     */
+    public SearchResult search(String keyword, PageCursor after, int limit) {
+        // 先读增量表再读快照，合并时先换快照再换增量表，保证不会漏掉数据
+        Map<Long, Doc> delta = this.delta;
+        Snapshot current = snapshot;
+        String query = normalize(keyword);
+        Doc cursor = after == null ? null : Doc.ofCursor(after);
+        // 快照里取limit+1条，增量表里匹配的全部取出，合并后再截取
+        List<Doc> hits = current.search(query, cursor, limit + 1, delta);
+        for (Doc doc : delta.values()) {
+            if (doc.matches(query) && (cursor == null || Doc.RANK.compare(doc, cursor) > 0)) {
+                hits.add(doc);
+            }
+        }
+        hits.sort(Doc.RANK);
+        boolean hasMore = hits.size() > limit;
+        List<Doc> page = hasMore ? hits.subList(0, limit) : hits;
+        List<Long> ids = page.stream().map(doc -> doc.id).collect(Collectors.toList());
+        PageCursor next = hasMore ? page.get(limit - 1).toCursor() : null;
+        return new SearchResult(ids, next);
+    }
+
+    /**
+     * 名称前缀补全，按 评分、销量 排序
+     */
+    public List<String> suggest(String prefix, int limit) {
+        String query = normalize(prefix);
+        if (query.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Map<Long, Doc> delta = this.delta;
+        List<Doc> hits = snapshot.suggest(query, limit, delta);
+        for (Doc doc : delta.values()) {
+            if (doc.normalizedName.startsWith(query)) {
+                hits.add(doc);
+            }
+        }
+        hits.sort(Doc.RANK);
+        Set<String> names = new LinkedHashSet<>();
+        for (Doc doc : hits) {
+            if (names.size() >= limit) {
+                break;
+            }
+            names.add(doc.name);
+        }
+        return new ArrayList<>(names);
+    }
+
+    public Map<String, Object> stats() {
+        Snapshot current = snapshot;
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("ready", current != null);
+        map.put("docs", current == null ? 0 : current.docs.length);
+        map.put("grams", current == null ? 0 : current.postings.size());
+        map.put("postingBytes", current == null ? 0 : current.postingBytes);
+        map.put("delta", delta.size());
+        return map;
+    }
+
+    private void swap(Collection<Doc> docs, Map<Long, Doc> pending) {
+        Map<Long, Doc> merged = new HashMap<>(docs.size() * 4 / 3 + 1);
+        docs.forEach(doc -> merged.put(doc.id, doc));
+        merged.putAll(pending);
+        Snapshot next = new Snapshot(merged.values());
+        synchronized (this) {
+            // 只去掉已经合并进去的版本，合并期间的新写入留在增量表
+            Map<Long, Doc> remaining = new ConcurrentHashMap<>();
+            delta.forEach((id, doc) -> {
+                if (pending.get(id) != doc) {
+                    remaining.put(id, doc);
+                }
+            });
+            snapshot = next;
+            delta = remaining;
+        }
+    }
+
+    /**
+     * 转小写并去掉空白
+     */
+    static String normalize(String text) {
+        if (StrUtil.isBlank(text)) {
+            return "";
+        }
+        return StrUtil.cleanBlank(text).toLowerCase();
+    }
+
+    /**
+     * 切词：单字查询用单字，否则用相邻两个字，单字的词高16位为0
+     */
+    static int[] queryGrams(String text) {
+        if (text.length() == 1) {
+            return new int[] {text.charAt(0)};
+        }
+        int[] grams = new int[text.length() - 1];
+        for (int i = 0; i < grams.length; i++) {
+            grams[i] = bigram(text.charAt(i), text.charAt(i + 1));
+        }
+        return Arrays.stream(grams).distinct().toArray();
+    }
+
+    private static void indexGrams(String text, Set<Integer> grams) {
+        for (int i = 0; i < text.length(); i++) {
+            grams.add((int) text.charAt(i));
+            if (i + 1 < text.length()) {
+                grams.add(bigram(text.charAt(i), text.charAt(i + 1)));
+            }
+        }
+    }
+
+    private static int bigram(char a, char b) {
+        return (a << 16) | b;
+    }
+
+    @Getter
+    public static final class SearchResult {
+        private final List<Long> ids;
+        /**
+         * 下一页的游标，没有更多时为null
+         */
+        private final PageCursor next;
+
+        SearchResult(List<Long> ids, PageCursor next) {
+            this.ids = ids;
+            this.next = next;
+        }
+    }
+
+    private static final class Doc {
+        static final Comparator<Doc> RANK = Comparator.comparingInt((Doc doc) -> doc.score).reversed()
+            .thenComparing(Comparator.comparingInt((Doc doc) -> doc.sold).reversed())
+            .thenComparingLong(doc -> doc.id);
+
+        final long id;
+        final String name;
+        final String normalizedName;
+        final String normalizedArea;
+        final int score;
+        final int sold;
+
+        Doc(Shop shop) {
+            this(shop.getId(), shop.getName(), shop.getArea(), shop.getScore() == null ? 0 : shop.getScore(),
+                shop.getSold() == null ? 0 : shop.getSold());
+        }
+
+        private Doc(long id, String name, String area, int score, int sold) {
+            this.id = id;
+            this.name = name;
+            this.normalizedName = normalize(name);
+            this.normalizedArea = normalize(area);
+            this.score = score;
+            this.sold = sold;
+        }
+
+        /**
+         * 游标的排序值高32位是评分，低32位是销量
+         */
+        static Doc ofCursor(PageCursor cursor) {
+            return new Doc(cursor.getId(), null, null, (int) (cursor.getSortKey() >>> 32), (int) cursor.getSortKey());
+        }
+
+        PageCursor toCursor() {
+            return PageCursor.of(PageCursor.ORDER_NAME_RANK, ((long) score << 32) | (sold & 0xFFFFFFFFL), id);
+        }
+
+        boolean matches(String query) {
+            return normalizedName.contains(query) || normalizedArea.contains(query);
+        }
+    }
+
+    /**
+     * 不可变的索引快照，docs按RANK排序，下标就是编号
+     */
+    private static final class Snapshot {
+        final Doc[] docs;
+        final Map<Integer, Posting> postings;
+        /**
+         * 按名称排序的编号，前缀相同的商铺是连续的一段
+         */
+        final int[] byName;
+        final long postingBytes;
+
+        Snapshot(Collection<Doc> source) {
+            docs = source.toArray(new Doc[0]);
+            Arrays.sort(docs, Doc.RANK);
+            Map<Integer, IntList> lists = new HashMap<>();
+            Set<Integer> grams = new HashSet<>();
+            for (int ordinal = 0; ordinal < docs.length; ordinal++) {
+                grams.clear();
+                indexGrams(docs[ordinal].normalizedName, grams);
+                indexGrams(docs[ordinal].normalizedArea, grams);
+                for (Integer gram : grams) {
+                    lists.computeIfAbsent(gram, k -> new IntList()).add(ordinal);
+                }
+            }
+            postings = new HashMap<>(lists.size() * 4 / 3 + 1);
+            long bytes = 0;
+            for (Map.Entry<Integer, IntList> entry : lists.entrySet()) {
+                Posting posting = new Posting(entry.getValue());
+                postings.put(entry.getKey(), posting);
+                bytes += posting.data.length + posting.blockFirst.length * 8L;
+            }
+            postingBytes = bytes;
+            byName = IntStream.range(0, docs.length).boxed()
+                .sorted(Comparator.comparing((Integer ordinal) -> docs[ordinal].normalizedName))
+                .mapToInt(Integer::intValue).toArray();
+        }
+
+        /**
+         * 求所有词的倒排表交集，按编号从小到大（即排名顺序）校验，凑够limit条就停
+         */
+        List<Doc> search(String query, Doc after, int limit, Map<Long, Doc> overridden) {
+            List<Doc> hits = new ArrayList<>();
+            int start = after == null ? 0 : firstAfter(after);
+            if (query.isEmpty()) {
+                for (int i = start; i < docs.length && hits.size() < limit; i++) {
+                    if (!overridden.containsKey(docs[i].id)) {
+                        hits.add(docs[i]);
+                    }
+                }
+                return hits;
+            }
+            int[] grams = queryGrams(query);
+            Posting.Cursor[] cursors = new Posting.Cursor[grams.length];
+            for (int i = 0; i < grams.length; i++) {
+                Posting posting = postings.get(grams[i]);
+                if (posting == null) {
+                    return hits;
+                }
+                cursors[i] = posting.cursor();
+            }
+            // 从最短的表开始
+            Arrays.sort(cursors, Comparator.comparingInt(c -> c.size));
+            int candidate = cursors[0].advance(start);
+            while (candidate != Integer.MAX_VALUE && hits.size() < limit) {
+                int max = candidate;
+                for (int i = 1; i < cursors.length && max == candidate; i++) {
+                    max = cursors[i].advance(candidate);
+                }
+                if (max == candidate) {
+                    Doc doc = docs[candidate];
+                    // 两字切分不保证连续，校验一次
+                    if (doc.matches(query) && !overridden.containsKey(doc.id)) {
+                        hits.add(doc);
+                    }
+                    candidate = cursors[0].advance(candidate + 1);
+                } else {
+                    candidate = cursors[0].advance(max);
+                }
+            }
+            return hits;
+        }
+
+        /**
+         * 名称前缀在byName里是连续的一段，取其中编号最小（排名最靠前）的几个
+         */
+        List<Doc> suggest(String prefix, int limit, Map<Long, Doc> overridden) {
+            // 以prefix开头的名称都在[prefix, prefix + '\uffff')之间
+            int from = lowerBound(prefix);
+            int to = lowerBound(prefix + Character.MAX_VALUE);
+            // 同名的商铺会在外面去重，多留一些
+            int capacity = limit * 4;
+            PriorityQueue<Integer> top = new PriorityQueue<>(capacity + 1, Comparator.reverseOrder());
+            for (int i = from; i < to; i++) {
+                if (top.size() == capacity && byName[i] > top.peek()) {
+                    continue;
+                }
+                if (overridden.containsKey(docs[byName[i]].id)) {
+                    continue;
+                }
+                top.offer(byName[i]);
+                if (top.size() > capacity) {
+                    top.poll();
+                }
+            }
+            List<Doc> hits = new ArrayList<>(top.size());
+            top.forEach(ordinal -> hits.add(docs[ordinal]));
+            return hits;
+        }
+
+        /**
+         * byName里第一个不小于text的位置
+         */
+        private int lowerBound(String text) {
+            int low = 0;
+            int high = byName.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (docs[byName[mid]].normalizedName.compareTo(text) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * 排名在after之后的第一个编号
+         */
+        private int firstAfter(Doc after) {
+            int low = 0;
+            int high = docs.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (Doc.RANK.compare(docs[mid], after) <= 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    /**
+     * 压缩的倒排表：每块第一个编号放在blockFirst里，块内其余的存和前一个的差值，varint编码
+     */
+    private static final class Posting {
+        final int size;
+        final int[] blockFirst;
+        final int[] blockOffset;
+        final byte[] data;
+
+        Posting(IntList ordinals) {
+            size = ordinals.size;
+            int blocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            blockFirst = new int[blocks];
+            blockOffset = new int[blocks];
+            ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+            for (int b = 0; b < blocks; b++) {
+                int from = b * BLOCK_SIZE;
+                int to = Math.min(size, from + BLOCK_SIZE);
+                blockFirst[b] = ordinals.values[from];
+                blockOffset[b] = out.size();
+                for (int i = from + 1; i < to; i++) {
+                    int delta = ordinals.values[i] - ordinals.values[i - 1];
+                    while ((delta & ~0x7F) != 0) {
+                        out.write((delta & 0x7F) | 0x80);
+                        delta >>>= 7;
+                    }
+                    out.write(delta);
+                }
+            }
+            data = out.toByteArray();
+        }
+
+        Cursor cursor() {
+            return new Cursor(this);
+        }
+
+        /**
+         * 顺序读取，advance跳到第一个不小于目标的编号，没有了返回Integer.MAX_VALUE
+         */
+        static final class Cursor {
+            final Posting posting;
+            final int size;
+            int block = -1;
+            int indexInBlock;
+            int offset;
+            int current = -1;
+
+            Cursor(Posting posting) {
+                this.posting = posting;
+                this.size = posting.size;
+            }
+
+            int advance(int target) {
+                if (current >= target) {
+                    return current;
+                }
+                // 目标不在当前块里时二分找到所在的块
+                int blocks = posting.blockFirst.length;
+                if (block < 0 || (block + 1 < blocks && posting.blockFirst[block + 1] <= target)) {
+                    int b = Arrays.binarySearch(posting.blockFirst, Math.max(block, 0), blocks, target);
+                    b = b >= 0 ? b : Math.max(-b - 2, 0);
+                    if (b > block) {
+                        block = b;
+                        indexInBlock = 0;
+                        offset = posting.blockOffset[b];
+                        current = posting.blockFirst[b];
+                        if (current >= target) {
+                            return current;
+                        }
+                    }
+                }
+                while (current < target) {
+                    if (!next()) {
+                        current = Integer.MAX_VALUE;
+                        return current;
+                    }
+                }
+                return current;
+            }
+
+            private boolean next() {
+                int blockEnd = Math.min(size, (block + 1) * BLOCK_SIZE) - block * BLOCK_SIZE;
+                if (indexInBlock + 1 < blockEnd) {
+                    int delta = 0;
+                    int shift = 0;
+                    byte b;
+                    do {
+                        b = posting.data[offset++];
+                        delta |= (b & 0x7F) << shift;
+                        shift += 7;
+                    } while ((b & 0x80) != 0);
+                    current += delta;
+                    indexInBlock++;
+                    return true;
+                }
+                if (block + 1 >= posting.blockFirst.length) {
+                    return false;
+                }
+                block++;
+                indexInBlock = 0;
+                offset = posting.blockOffset[block];
+                current = posting.blockFirst[block];
+                return true;
+            }
+        }
+    }
+
+    private static final class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * 进程内请求合并
+ * 同一个key同时只有一个线程真正执行，其他线程等待同一个future，结果一出来立刻返回
+ */
+public class SingleFlight {
+
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> calls = new ConcurrentHashMap<>();
+
+    /**
+     * 执行或等待同一个key上正在进行的调用
+     *
+     * @param key      合并的key
+     * @param supplier 真正执行的逻辑
+     * @param timeout  等待的最长时间
+     * @param unit     时间单位
+     * @return supplier的结果
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Supplier<T> supplier, long timeout, TimeUnit unit) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = calls.putIfAbsent(key, future);
+        if (inFlight == null) {
+            // 当前线程负责执行
+            try {
+                T result = supplier.get();
+                future.complete(result);
+                return result;
+            } catch (Throwable e) {
+                // Error也要结束future，否则等待的线程一直等到超时
+                future.completeExceptionally(e);
+                throw e;
+            } finally {
+                calls.remove(key, future);
+            }
+        }
+        // 等待正在执行的线程
+        try {
+            return (T) inFlight.get(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+        } catch (TimeoutException e) {
+            throw new RuntimeException("等待缓存重建超时, key: " + key, e);
+        }
+    }
+
+    /**
+     * 正在执行中的key数量
+     */
+    public int inFlight() {
+        return calls.size();
+    }
+}
@@ -5,4 +5,8 @@ public class SystemConstants {
     public static final String USER_NICK_NAME_PREFIX = "user_";
     public static final int DEFAULT_PAGE_SIZE = 5;
     public static final int MAX_PAGE_SIZE = 10;
+    public static final int MAX_BATCH_SIZE = 100;
+    public static final int MAX_DISTANCE_OFFSET = 1000;
+    public static final int ORDER_STATUS_UNPAID = 1;
+    public static final int ORDER_STATUS_CANCELLED = 4;
 }
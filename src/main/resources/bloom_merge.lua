@@ -0,0 +1,16 @@
+-- 布隆过滤器构建完成后写回redis：参数和redis里记录的相同时与现有bitmap取并集，不会丢掉构建期间新增的id；
+-- 参数不同（或者还没有记录）时现有bitmap的位置含义不同，整个替换并记录新的参数
+-- KEYS[1] bitmap bloom:{name}
+-- KEYS[2] 构建好的临时bitmap
+-- KEYS[3] bitmap的参数 bloom:{name}:meta，hash，numBits/numHashes
+-- ARGV[1] numBits  ARGV[2] numHashes
+-- 返回 1 替换，0 合并
+local meta = redis.call('hmget', KEYS[3], 'numBits', 'numHashes')
+if meta[1] == ARGV[1] and meta[2] == ARGV[2] then
+    redis.call('bitop', 'OR', KEYS[1], KEYS[1], KEYS[2])
+    redis.call('del', KEYS[2])
+    return 0
+end
+redis.call('rename', KEYS[2], KEYS[1])
+redis.call('hset', KEYS[3], 'numBits', ARGV[1], 'numHashes', ARGV[2])
+return 1
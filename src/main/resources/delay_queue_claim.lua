@@ -0,0 +1,13 @@
+-- 从延时队列里领取到期的元素：到期的元素把score改成 当前时间 + 租期，处理完之前其他节点领不到，
+-- 处理的节点宕机后租期一过又会到期，由其他节点重新领取
+-- KEYS[1] 延时队列，zset，score为到期时间的毫秒时间戳
+-- ARGV[1] 最多领取多少个  ARGV[2] 租期，毫秒
+-- 返回 领取到的元素
+local now = redis.call('time')
+local nowMillis = tonumber(now[1]) * 1000 + math.floor(tonumber(now[2]) / 1000)
+local members = redis.call('zrangebyscore', KEYS[1], '-inf', nowMillis, 'LIMIT', 0, tonumber(ARGV[1]))
+local leaseUntil = nowMillis + tonumber(ARGV[2])
+for _, member in ipairs(members) do
+    redis.call('zadd', KEYS[1], leaseUntil, member)
+end
+return members
@@ -0,0 +1,11 @@
+-- 获取可重入锁：锁是一个hash，field是持有者，value是重入次数
+-- KEYS[1] 锁
+-- ARGV[1] 持有者 {节点id}:{线程id}
+-- ARGV[2] 租期，毫秒
+-- 返回 nil 获取成功，否则返回锁的剩余毫秒数
+if redis.call('exists', KEYS[1]) == 0 or redis.call('hexists', KEYS[1], ARGV[1]) == 1 then
+    redis.call('hincrby', KEYS[1], ARGV[1], 1)
+    redis.call('pexpire', KEYS[1], ARGV[2])
+    return nil
+end
+return redis.call('pttl', KEYS[1])
@@ -0,0 +1,10 @@
+-- 锁续期：只有持有者能续期
+-- KEYS[1] 锁
+-- ARGV[1] 持有者 {节点id}:{线程id}
+-- ARGV[2] 租期，毫秒
+-- 返回 1 续期成功，0 已经不是持有者
+if redis.call('hexists', KEYS[1], ARGV[1]) == 1 then
+    redis.call('pexpire', KEYS[1], ARGV[2])
+    return 1
+end
+return 0
@@ -0,0 +1,21 @@
+-- 滑动窗口限流：用当前窗口和上一个窗口的计数按时间加权估算最近一个周期的请求数，只占用两个计数
+-- KEYS[1] 窗口计数 rate:limit:{规则}:{维度}，hash，field 是窗口编号
+-- ARGV[1] 每个周期最多的请求数  ARGV[2] 周期，毫秒  ARGV[3] 本次的请求数
+-- 返回 {1, 0} 通过，{0, 多少毫秒后再试} 拒绝
+local limit = tonumber(ARGV[1])
+local window = tonumber(ARGV[2])
+local requested = tonumber(ARGV[3])
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+local index = math.floor(now / window)
+local elapsed = now - index * window
+local current = tonumber(redis.call('hget', KEYS[1], index)) or 0
+local previous = tonumber(redis.call('hget', KEYS[1], index - 1)) or 0
+local estimated = previous * (window - elapsed) / window + current
+if estimated + requested > limit then
+    return {0, window - elapsed}
+end
+redis.call('hincrby', KEYS[1], index, requested)
+redis.call('hdel', KEYS[1], index - 2)
+redis.call('pexpire', KEYS[1], window * 2)
+return {1, 0}
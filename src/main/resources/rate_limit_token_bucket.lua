@@ -0,0 +1,26 @@
+-- 令牌桶限流：按时间补充令牌，允许不超过容量的突发
+-- KEYS[1] 令牌桶 rate:limit:{规则}:{维度}，hash，tokens 剩余令牌，ts 上次补充的毫秒时间戳
+-- ARGV[1] 桶容量  ARGV[2] 每个周期补充的令牌数  ARGV[3] 周期，毫秒  ARGV[4] 本次需要的令牌数
+-- 返回 {1, 0} 通过，{0, 多少毫秒后再试} 拒绝
+local capacity = tonumber(ARGV[1])
+local rate = tonumber(ARGV[2]) / tonumber(ARGV[3])
+local requested = tonumber(ARGV[4])
+-- 用redis的时间，所有节点看到的是同一个时钟
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+local bucket = redis.call('hmget', KEYS[1], 'tokens', 'ts')
+local tokens = tonumber(bucket[1]) or capacity
+local ts = tonumber(bucket[2]) or now
+tokens = math.min(capacity, tokens + math.max(0, now - ts) * rate)
+local allowed = 0
+local retry = 0
+if tokens >= requested then
+    tokens = tokens - requested
+    allowed = 1
+else
+    retry = math.ceil((requested - tokens) / rate)
+end
+redis.call('hset', KEYS[1], 'tokens', tokens, 'ts', now)
+-- 桶补满之后就和不存在一样了
+redis.call('pexpire', KEYS[1], math.ceil(capacity / rate) + 1000)
+return {allowed, retry}
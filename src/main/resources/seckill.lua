@@ -0,0 +1,35 @@
+-- 秒杀下单：校验活动时间、扣减库存、一人一单，成功后把订单写入消息队列和待支付队列，整个脚本原子执行
+-- KEYS[1] 库存 seckill:stock:{voucherId}
+-- KEYS[2] 活动时间 seckill:time:{voucherId}，hash，begin/end 为毫秒时间戳
+-- KEYS[3] 已下单的用户 seckill:order:{voucherId}，set
+-- KEYS[4] 订单消息队列 stream.orders
+-- KEYS[5] 待支付订单 seckill:unpaid，zset，score为支付截止时间的毫秒时间戳
+-- KEYS[6] 待支付订单的下单信息 seckill:unpaid:info，hash，订单id -> 优惠券id:用户id
+-- ARGV[1] 用户id  ARGV[2] 优惠券id  ARGV[3] 订单id  ARGV[4] 支付超时时间，毫秒
+-- 返回 0 成功，1 活动不存在，2 未开始，3 已结束，4 库存不足，5 重复下单
+local stock = redis.call('get', KEYS[1])
+if not stock then
+    return 1
+end
+-- 用redis的时间，所有节点看到的是同一个时钟
+local time = redis.call('hmget', KEYS[2], 'begin', 'end')
+local now = redis.call('time')
+local nowMillis = tonumber(now[1]) * 1000 + math.floor(tonumber(now[2]) / 1000)
+if time[1] and nowMillis < tonumber(time[1]) then
+    return 2
+end
+if time[2] and nowMillis > tonumber(time[2]) then
+    return 3
+end
+if tonumber(stock) <= 0 then
+    return 4
+end
+if redis.call('sismember', KEYS[3], ARGV[1]) == 1 then
+    return 5
+end
+redis.call('incrby', KEYS[1], -1)
+redis.call('sadd', KEYS[3], ARGV[1])
+redis.call('xadd', KEYS[4], '*', 'userId', ARGV[1], 'voucherId', ARGV[2], 'id', ARGV[3])
+redis.call('zadd', KEYS[5], nowMillis + tonumber(ARGV[4]), ARGV[3])
+redis.call('hset', KEYS[6], ARGV[3], ARGV[2] .. ':' .. ARGV[1])
+return 0
@@ -0,0 +1,15 @@
+-- 取消超时未支付的订单后归还redis库存，和移出待支付队列一起执行，保证同一个订单只归还一次
+-- KEYS[1] 库存 seckill:stock:{voucherId}
+-- KEYS[2] 已下单的用户 seckill:order:{voucherId}
+-- KEYS[3] 待支付订单 seckill:unpaid
+-- KEYS[4] 待支付订单的下单信息 seckill:unpaid:info
+-- ARGV[1] 用户id  ARGV[2] 订单id
+-- 返回 1 已归还，0 订单已经不在待支付队列里
+redis.call('hdel', KEYS[4], ARGV[2])
+if redis.call('zrem', KEYS[3], ARGV[2]) == 0 then
+    return 0
+end
+if redis.call('srem', KEYS[2], ARGV[1]) == 1 then
+    redis.call('incrby', KEYS[1], 1)
+end
+return 1
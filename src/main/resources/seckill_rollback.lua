@@ -0,0 +1,14 @@
+-- 撤销一次秒杀下单：归还库存并允许该用户重新下单，同一个用户只会归还一次
+-- KEYS[1] 库存 seckill:stock:{voucherId}
+-- KEYS[2] 已下单的用户 seckill:order:{voucherId}
+-- KEYS[3] 待支付订单 seckill:unpaid
+-- KEYS[4] 待支付订单的下单信息 seckill:unpaid:info
+-- ARGV[1] 用户id  ARGV[2] 订单id
+-- 返回 1 已归还，0 该用户没有下单记录
+redis.call('zrem', KEYS[3], ARGV[2])
+redis.call('hdel', KEYS[4], ARGV[2])
+if redis.call('srem', KEYS[2], ARGV[1]) == 1 then
+    redis.call('incrby', KEYS[1], 1)
+    return 1
+end
+return 0
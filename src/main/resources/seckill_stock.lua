@@ -0,0 +1,9 @@
+-- 同时读取库存和已下单用户数，两者在同一时刻
+-- KEYS[1] 库存 seckill:stock:{voucherId}
+-- KEYS[2] 已下单的用户 seckill:order:{voucherId}
+-- 返回 {库存, 已下单用户数}，库存不存在时返回空列表
+local stock = redis.call('get', KEYS[1])
+if not stock then
+    return {}
+end
+return {tonumber(stock), redis.call('scard', KEYS[2])}
@@ -0,0 +1,16 @@
+-- 释放可重入锁：只有持有者能释放，重入次数减到0时删除锁并通知等待的节点
+-- KEYS[1] 锁
+-- KEYS[2] 释放通知的频道
+-- ARGV[1] 持有者 {节点id}:{线程id}
+-- ARGV[2] 租期，毫秒
+-- 返回 nil 不是持有者，0 还有重入次数，1 已释放
+if redis.call('hexists', KEYS[1], ARGV[1]) == 0 then
+    return nil
+end
+if redis.call('hincrby', KEYS[1], ARGV[1], -1) > 0 then
+    redis.call('pexpire', KEYS[1], ARGV[2])
+    return 0
+end
+redis.call('del', KEYS[1])
+redis.call('publish', KEYS[2], KEYS[1])
+return 1
@@ -0,0 +1,138 @@
+package com.hmdp;
+
+import cn.hutool.core.util.RandomUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.BinarySchema;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 二进制缓存编码的往返测试，以及字段增减后新旧数据互相读取
+ */
+class BinaryCacheCodecTests {
+
+    private static final int COMPRESS_THRESHOLD = 128;
+
+    private final BinaryCacheCodec codec = new BinaryCacheCodec(COMPRESS_THRESHOLD);
+
+    @Test
+    void roundTripAllFields() {
+        Shop shop = new Shop().setId(Long.MAX_VALUE).setName("103茶餐厅").setTypeId(1L)
+            .setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56.jpg,"
+                + "https://qcloud.dpfile.com/pc/IOf6VX3qaBgFXFVgp75w-KKJmWZjFc8GXDU8g9bQC6YGCpAmG00QbfT4vCC.jpg")
+            .setArea("大关").setAddress("金华路锦昌文华苑29号")
+            .setX(120.149192).setY(-30.316078)
+            .setAvgPrice(-80L).setSold(4215).setComments(Integer.MIN_VALUE).setScore(37)
+            .setOpenHours("10:00-22:00")
+            .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39, 123456789))
+            .setUpdateTime(LocalDateTime.of(1969, 12, 31, 23, 59, 59, 1));
+        assertEquals(shop, roundTrip(shop, Shop.class));
+
+        Blog blog = new Blog().setId(1L).setIsLike(false).setLiked(0).setTitle("无尽浪漫的夜晚")
+            .setCreateTime(LocalDateTime.of(2022, 1, 1, 0, 0, 0, 999_999_999));
+        assertEquals(blog, roundTrip(blog, Blog.class));
+        blog.setIsLike(true);
+        assertEquals(blog, roundTrip(blog, Blog.class));
+    }
+
+    @Test
+    void nullFieldsStayNull() {
+        Shop shop = new Shop().setId(1L);
+        Shop decoded = roundTrip(shop, Shop.class);
+        assertEquals(shop, decoded);
+        assertNull(decoded.getName());
+        assertNull(decoded.getX());
+        assertNull(decoded.getCreateTime());
+
+        // 全部为null也能编码
+        assertEquals(new Shop(), roundTrip(new Shop(), Shop.class));
+        // 空字符串和null不同
+        assertEquals("", roundTrip(new Shop().setName(""), Shop.class).getName());
+    }
+
+    @Test
+    void compressedAndUncompressedStrings() {
+        // 短字符串不压缩
+        String shortImages = "a.jpg,b.jpg";
+        Shop shop = new Shop().setImages(shortImages);
+        assertEquals(shortImages, roundTrip(shop, Shop.class).getImages());
+
+        // 重复度高的长字符串压缩后明显变小
+        String images = StrUtil.repeat("https://qcloud.dpfile.com/pc/图片.jpg,", 100);
+        shop.setImages(images);
+        byte[] compressed = codec.encode(shop);
+        assertTrue(compressed.length < images.length() / 4, "压缩后长度: " + compressed.length);
+        assertEquals(images, codec.decode(compressed, 0, Shop.class).getImages());
+
+        // 重复度低的字符串也能原样解出来
+        String random = RandomUtil.randomString(1000);
+        shop.setImages(random);
+        assertEquals(random, roundTrip(shop, Shop.class).getImages());
+
+        // 不允许压缩的字段即使很长也按原样存
+        shop.setImages(null).setName(images);
+        assertTrue(codec.encode(shop).length > images.length());
+        assertEquals(images, roundTrip(shop, Shop.class).getName());
+    }
+
+    @Test
+    void decodeAtOffset() {
+        Shop shop = new Shop().setId(7L).setName("开乐迪KTV");
+        byte[] payload = codec.encode(shop);
+        // 缓存值前面还有头部
+        byte[] bytes = new byte[payload.length + 3];
+        System.arraycopy(payload, 0, bytes, 3, payload.length);
+        assertEquals(shop, codec.decode(bytes, 3, Shop.class));
+    }
+
+    @Test
+    void readOlderAndNewerSchema() {
+        // 旧版本只有前3个字段，新版本追加到10个，位图跨过一个字节
+        BinarySchema<Shop> older = new BinarySchema<>(Shop.class, 1, Shop::new, COMPRESS_THRESHOLD)
+            .int64(Shop::getId, Shop::setId)
+            .string(Shop::getName, Shop::setName)
+            .int64(Shop::getTypeId, Shop::setTypeId);
+        BinarySchema<Shop> newer = new BinarySchema<>(Shop.class, 2, Shop::new, COMPRESS_THRESHOLD)
+            .int64(Shop::getId, Shop::setId)
+            .string(Shop::getName, Shop::setName)
+            .int64(Shop::getTypeId, Shop::setTypeId)
+            .compressedString(Shop::getImages, Shop::setImages)
+            .string(Shop::getArea, Shop::setArea)
+            .string(Shop::getAddress, Shop::setAddress)
+            .float64(Shop::getX, Shop::setX)
+            .float64(Shop::getY, Shop::setY)
+            .int64(Shop::getAvgPrice, Shop::setAvgPrice)
+            .dateTime(Shop::getCreateTime, Shop::setCreateTime);
+        Shop shop = new Shop().setId(1L).setName("海底捞").setTypeId(1L)
+            .setImages(StrUtil.repeat("x.jpg,", 50)).setArea("拱宸桥").setX(120.1).setY(30.2)
+            .setAvgPrice(104L).setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39, 5));
+
+        // 旧代码读新数据，忽略末尾不认识的字段
+        Shop fromNewer = older.decode(newer.encode(shop), 0);
+        assertEquals(new Shop().setId(1L).setName("海底捞").setTypeId(1L), fromNewer);
+
+        // 新代码读旧数据，新字段为null
+        Shop fromOlder = newer.decode(older.encode(shop), 0);
+        assertEquals(new Shop().setId(1L).setName("海底捞").setTypeId(1L), fromOlder);
+
+        // 字段为null时位图对应的位为0，后面的字段不会错位
+        shop.setName(null).setArea(null);
+        Shop sparse = newer.decode(newer.encode(shop), 0);
+        assertEquals(shop, sparse);
+        assertEquals(Arrays.asList(1L, null, 1L),
+            Arrays.asList(sparse.getId(), sparse.getName(), sparse.getTypeId()));
+    }
+
+    private <T> T roundTrip(T value, Class<T> type) {
+        return codec.decode(codec.encode(value), 0, type);
+    }
+}
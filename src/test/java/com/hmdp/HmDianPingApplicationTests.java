@@ -1,31 +1,54 @@
 package com.hmdp;
 
-import cn.hutool.json.JSONUtil;
 import com.hmdp.entity.Shop;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheStrategy;
 import com.hmdp.utils.RedisConstants;
-import com.hmdp.utils.RedisData;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
-import org.springframework.data.redis.core.StringRedisTemplate;
 
 import javax.annotation.Resource;
-import java.time.LocalDateTime;
-import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
 
 @SpringBootTest
 class HmDianPingApplicationTests {
     @Resource
-    StringRedisTemplate stringRedisTemplate;
+    CacheClient cacheClient;
 
     @Test
     void testRedisData() {
-        RedisData<Shop> redisData = new RedisData<>();
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(10L));
-        redisData.setData(new Shop().setId(1L).setName("12312312312"));
-        HashMap<Object, Object> objectObjectHashMap = new HashMap<>();
-        objectObjectHashMap.put("expireTime", redisData.getExpireTime().toString());
-        objectObjectHashMap.put("data", JSONUtil.toJsonStr(redisData.getData()));
+        cacheClient.setWithLogicalExpire(RedisConstants.CACHE_SHOP_KEY + "1", new Shop().setId(1L).setName("12312312312"),
+            10L, TimeUnit.SECONDS);
+        Shop shop = cacheClient.query(RedisConstants.CACHE_SHOP_KEY, 1L, Shop.class, id -> null, 10L,
+            TimeUnit.SECONDS, CacheStrategy.LOGICAL_EXPIRE);
+        assertEquals("12312312312", shop.getName());
+    }
 
-        stringRedisTemplate.opsForHash().putAll(RedisConstants.CACHE_SHOP_KEY + "1", objectObjectHashMap);
+    /**
+     * 更新商铺后缓存失效消息删除了逻辑过期的缓存，下一次读取要查库写回新数据，而不是返回不存在
+     */
+    @Test
+    void testLogicalExpireReadAfterUpdate() {
+        String key = RedisConstants.CACHE_SHOP_KEY + "2";
+        cacheClient.setWithLogicalExpire(key, new Shop().setId(2L).setName("old"), 10L, TimeUnit.SECONDS);
+        cacheClient.delete(key);
+        AtomicInteger loads = new AtomicInteger();
+        Function<Long, Shop> dbFallback = id -> {
+            loads.incrementAndGet();
+            return new Shop().setId(id).setName("new");
+        };
+        Shop shop = cacheClient.query(RedisConstants.CACHE_SHOP_KEY, 2L, Shop.class, dbFallback, 10L,
+            TimeUnit.SECONDS, CacheStrategy.LOGICAL_EXPIRE);
+        assertEquals("new", shop.getName());
+        // 写回的是逻辑过期的数据，再读不会查库
+        shop = cacheClient.query(RedisConstants.CACHE_SHOP_KEY, 2L, Shop.class, dbFallback, 10L,
+            TimeUnit.SECONDS, CacheStrategy.LOGICAL_EXPIRE);
+        assertEquals("new", shop.getName());
+        assertEquals(1, loads.get());
+        cacheClient.delete(key);
     }
 }
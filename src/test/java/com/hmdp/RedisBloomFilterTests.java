@@ -0,0 +1,89 @@
+package com.hmdp;
+
+import com.hmdp.utils.RedisBloomFilter;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 只测本地副本的哈希和统计，不访问redis：其他节点广播过来的id只写本地副本
+ */
+class RedisBloomFilterTests {
+
+    @Test
+    void sizing() {
+        // m = -n*ln(p)/(ln2)^2 = 9585058.4，向上取整到64的倍数；k = m/n*ln2 = 6.64
+        Map<String, Object> stats = newFilter(1_000_000, 0.01).stats();
+        assertEquals(9585088L, stats.get("numBits"));
+        assertEquals(7, stats.get("numHashes"));
+        assertEquals(9585088L / 8, stats.get("memoryBytes"));
+
+        // 很小的容量也至少有64位、1个哈希函数
+        Map<String, Object> tiny = newFilter(1, 0.9).stats();
+        assertEquals(64L, tiny.get("numBits"));
+        assertEquals(44, tiny.get("numHashes"));
+    }
+
+    @Test
+    void notReadyLetsEverythingThrough() {
+        RedisBloomFilter filter = new RedisBloomFilter("test", 1000, 0.01, null);
+        assertTrue(filter.mightContain(1L));
+        assertFalse(filter.mightContain(null));
+    }
+
+    @Test
+    void noFalseNegativesAndExpectedFpp() {
+        int n = 100_000;
+        double fpp = 0.01;
+        RedisBloomFilter filter = newFilter(n, fpp);
+        Map<String, Object> empty = filter.stats();
+        assertEquals(0D, empty.get("fillRatio"));
+        assertEquals(0L, empty.get("approximateInsertions"));
+
+        // 连续的id，和数据库自增主键一样
+        for (long id = 1; id <= n; id++) {
+            filter.onMessage(String.valueOf(id));
+        }
+        for (long id = 1; id <= n; id++) {
+            assertTrue(filter.mightContain(id));
+        }
+        int falsePositives = 0;
+        int trials = 1_000_000;
+        for (long id = n + 1; id <= n + trials; id++) {
+            if (filter.mightContain(id)) {
+                falsePositives++;
+            }
+        }
+        double observed = (double) falsePositives / trials;
+        assertTrue(observed < fpp * 1.5, "误判率: " + observed);
+
+        // 插入n个元素后约一半的位被置1，估算的元素数和误判率接近实际
+        Map<String, Object> stats = filter.stats();
+        double fillRatio = (double) stats.get("fillRatio");
+        long numBits = (long) stats.get("numBits");
+        int numHashes = (int) stats.get("numHashes");
+        double expectedFill = 1 - Math.exp(-(double) numHashes * n / numBits);
+        assertEquals(expectedFill, fillRatio, 0.005);
+        assertEquals(n, (long) stats.get("approximateInsertions"), n * 0.02);
+        assertEquals(observed, (double) stats.get("currentFpp"), fpp * 0.5);
+    }
+
+    @Test
+    void broadcastIdIsAddedLocally() {
+        RedisBloomFilter filter = newFilter(1000, 0.01);
+        filter.onMessage("42");
+        assertTrue(filter.mightContain(42L));
+        assertFalse(filter.mightContain(43L));
+    }
+
+    private static RedisBloomFilter newFilter(long expectedInsertions, double fpp) {
+        RedisBloomFilter filter = new RedisBloomFilter("test", expectedInsertions, fpp, null);
+        ReflectionTestUtils.setField(filter, "ready", true);
+        return filter;
+    }
+}
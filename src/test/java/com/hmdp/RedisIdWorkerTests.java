@@ -0,0 +1,153 @@
+package com.hmdp;
+
+import com.hmdp.utils.RedisIdWorker;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 用内存里的计数器模拟redis，多个RedisIdWorker共享同一个计数器就相当于多个节点
+ * 吞吐量在压测里测：mvn -P load-test test -Dtest=RedisIdWorkerLoadTest
+ */
+class RedisIdWorkerTests {
+
+    private static final long STEP = 1000;
+
+    /**
+     * 模拟redis的INCRBY，并记录访问次数
+     */
+    private static class SimulatedRedis implements RedisIdWorker.SequenceAllocator {
+        private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+        private final LongAdder calls = new LongAdder();
+
+        @Override
+        public long allocate(String key, long step) {
+            calls.increment();
+            return counters.computeIfAbsent(key, k -> new AtomicLong()).addAndGet(step);
+        }
+    }
+
+    /**
+     * 可以手动拨动的时钟
+     */
+    private static class MutableClock extends Clock {
+        private final AtomicLong millis;
+
+        private MutableClock(long millis) {
+            this.millis = new AtomicLong(millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public long millis() {
+            return millis.get();
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis());
+        }
+    }
+
+    @Test
+    void uniqueAcrossThreadsAndNodes() throws Exception {
+        SimulatedRedis redis = new SimulatedRedis();
+        int nodes = 4;
+        int threadsPerNode = 4;
+        int idsPerThread = 100_000;
+        List<RedisIdWorker> workers = new ArrayList<>();
+        for (int i = 0; i < nodes; i++) {
+            workers.add(new RedisIdWorker(redis, STEP, Clock.systemUTC()));
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(nodes * threadsPerNode);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<long[]>> futures = new ArrayList<>();
+        for (int i = 0; i < nodes * threadsPerNode; i++) {
+            RedisIdWorker worker = workers.get(i % nodes);
+            futures.add(pool.submit(() -> {
+                start.await();
+                long[] ids = new long[idsPerThread];
+                for (int j = 0; j < idsPerThread; j++) {
+                    ids[j] = worker.nextId("order");
+                }
+                return ids;
+            }));
+        }
+        start.countDown();
+        long[] all = new long[nodes * threadsPerNode * idsPerThread];
+        int offset = 0;
+        for (Future<long[]> future : futures) {
+            long[] ids = future.get(60, TimeUnit.SECONDS);
+            // 同一个线程拿到的ID递增
+            for (int j = 1; j < ids.length; j++) {
+                assertTrue(ids[j] > ids[j - 1] || (ids[j] >>> 32) > (ids[j - 1] >>> 32));
+            }
+            System.arraycopy(ids, 0, all, offset, ids.length);
+            offset += ids.length;
+        }
+        pool.shutdown();
+
+        Arrays.sort(all);
+        for (int i = 1; i < all.length; i++) {
+            assertNotEquals(all[i - 1], all[i], "重复的ID");
+        }
+        assertTrue(all[0] > 0);
+        // 大部分ID不需要访问redis
+        assertTrue(redis.calls.sum() <= all.length / STEP + (long) nodes * threadsPerNode);
+    }
+
+    @Test
+    void sequenceRestartsOnNewDay() {
+        SimulatedRedis redis = new SimulatedRedis();
+        // 2024-05-01 23:59:59 UTC
+        MutableClock clock = new MutableClock(1714607999000L);
+        RedisIdWorker worker = new RedisIdWorker(redis, STEP, clock);
+
+        long first = worker.nextId("order");
+        long second = worker.nextId("order");
+        assertEquals(1, first & 0xFFFFFFFFL);
+        assertEquals(2, second & 0xFFFFFFFFL);
+        assertEquals(1714607999L, RedisIdWorker.extractEpochSecond(first));
+
+        // 跨过零点后，上一天号段剩下的号不再使用
+        clock.millis.addAndGet(1000);
+        long nextDay = worker.nextId("order");
+        assertEquals(1, nextDay & 0xFFFFFFFFL);
+        assertEquals(1714608000L, RedisIdWorker.extractEpochSecond(nextDay));
+        assertTrue(nextDay > second);
+        assertEquals(2, redis.calls.sum());
+        assertTrue(redis.counters.containsKey("icr:order:2024:05:01"));
+        assertTrue(redis.counters.containsKey("icr:order:2024:05:02"));
+
+        // 不同业务的计数器互不影响
+        assertEquals(1, worker.nextId("blog") & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,215 @@
+package com.hmdp;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.utils.ShopGridIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 网格索引的结果和暴力计算所有商铺的距离再排序对比
+ */
+class ShopGridIndexTests {
+
+    private static final double EARTH_RADIUS_METERS = 6372797.560856;
+    private static final double RADIUS = 5000;
+    private static final int TYPES = 5;
+    private static final int BATCH_SIZE = 10000;
+
+    private final Random random = new Random(20240501L);
+    /**
+     * 数据库里的商铺
+     */
+    private final Map<Long, Shop> table = new LinkedHashMap<>();
+    /**
+     * 扫描到第一批时执行，模拟加载期间的写入
+     */
+    private Runnable duringScan;
+    private ShopGridIndex index;
+
+    @BeforeEach
+    void setUp() {
+        for (long id = 1; id <= 15000; id++) {
+            table.put(id, randomShop(id));
+        }
+        // 模拟reload按id分批扫描，扫描开始时的数据已经取出，扫描期间的写入扫不到
+        List<Shop> rows = new ArrayList<>();
+        int[] position = {0};
+        ShopMapper shopMapper = mock(ShopMapper.class);
+        when(shopMapper.selectList(any())).thenAnswer(invocation -> {
+            if (position[0] == 0) {
+                rows.clear();
+                table.values().forEach(shop -> rows.add(copy(shop)));
+                if (duringScan != null) {
+                    duringScan.run();
+                }
+            }
+            int from = position[0];
+            int to = Math.min(rows.size(), from + BATCH_SIZE);
+            position[0] = to - from < BATCH_SIZE ? 0 : to;
+            return new ArrayList<>(rows.subList(from, to));
+        });
+        index = new ShopGridIndex();
+        ReflectionTestUtils.setField(index, "shopMapper", shopMapper);
+        ReflectionTestUtils.setField(index, "enabled", true);
+        ReflectionTestUtils.setField(index, "cellDegrees", 0.01);
+        ReflectionTestUtils.setField(index, "radiusMeters", RADIUS);
+        index.reload();
+        assertTrue(index.isReady());
+    }
+
+    @Test
+    void searchMatchesBruteForce() {
+        assertSearchMatches();
+    }
+
+    @Test
+    void incrementalWritesMatchBruteForce() {
+        for (int i = 0; i < 2000; i++) {
+            long id = 1 + random.nextInt(20000);
+            Shop old = table.get(id);
+            Shop shop = randomShop(id);
+            table.put(id, shop);
+            if (old == null) {
+                index.add(copy(shop));
+            } else {
+                index.update(old.getTypeId(), copy(shop));
+            }
+        }
+        assertSearchMatches();
+    }
+
+    @Test
+    void writesDuringReloadAreKept() {
+        // 扫描已经取出旧数据以后，移动一些商铺、换类型、新增商铺
+        duringScan = () -> {
+            for (int i = 0; i < 500; i++) {
+                long id = 1 + random.nextInt(15000);
+                Shop old = table.get(id);
+                Shop shop = randomShop(id);
+                table.put(id, shop);
+                index.update(old.getTypeId(), copy(shop));
+            }
+            for (long id = 15001; id <= 15300; id++) {
+                Shop shop = randomShop(id);
+                table.put(id, shop);
+                index.add(copy(shop));
+            }
+        };
+        index.reload();
+        duringScan = null;
+        assertSearchMatches();
+        // 再加载一次，数据库里已经有这些写入，结果不变
+        index.reload();
+        assertSearchMatches();
+    }
+
+    @Test
+    void reloadDropsEmptyTypes() {
+        // 另一个节点把类型1的商铺都改成了类型2
+        table.values().stream().filter(shop -> shop.getTypeId() == 1L).forEach(shop -> shop.setTypeId(2L));
+        assertTrue(index.sizes().containsKey(1L));
+        index.reload();
+        assertFalse(index.sizes().containsKey(1L));
+        assertTrue(index.withinRadius(1L, 120.15, 30.25, RADIUS, 10).isEmpty());
+        assertSearchMatches();
+    }
+
+    private void assertSearchMatches() {
+        Map<Long, Integer> sizes = new LinkedHashMap<>();
+        table.values().forEach(shop -> sizes.merge(shop.getTypeId(), 1, Integer::sum));
+        assertEquals(sizes, new LinkedHashMap<>(index.sizes()).entrySet().stream()
+            .filter(entry -> entry.getValue() > 0)
+            .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue)));
+        int[] limits = {1, 10, 50, 300};
+        for (int i = 0; i < 200; i++) {
+            long typeId = 1 + random.nextInt(TYPES);
+            double x;
+            double y;
+            if (i % 10 == 0) {
+                // 搜索半径内没有商铺
+                x = 119.5 + random.nextDouble() * 0.2;
+                y = 29.7 + random.nextDouble() * 0.2;
+            } else {
+                x = 120.0 + random.nextDouble() * 0.3;
+                y = 30.1 + random.nextDouble() * 0.3;
+            }
+            int limit = limits[random.nextInt(limits.length)];
+            assertSame(bruteForce(typeId, x, y, RADIUS, limit), index.withinRadius(typeId, x, y, RADIUS, limit));
+            assertSame(bruteForce(typeId, x, y, Double.MAX_VALUE, limit), index.nearest(typeId, x, y, limit));
+            // 分页和整体排序后截取的一段相同
+            List<Map.Entry<Long, Double>> all = new ArrayList<>(bruteForce(typeId, x, y, RADIUS, 30).entrySet());
+            int from = random.nextInt(20);
+            Map<Long, Double> expected = new LinkedHashMap<>();
+            all.subList(Math.min(from, all.size()), Math.min(from + 10, all.size()))
+                .forEach(entry -> expected.put(entry.getKey(), entry.getValue()));
+            assertSame(expected, index.page(typeId, x, y, from, from + 10));
+        }
+    }
+
+    private static void assertSame(Map<Long, Double> expected, Map<Long, Double> actual) {
+        assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(actual.keySet()));
+        for (Map.Entry<Long, Double> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), actual.get(entry.getKey()), 1e-6);
+        }
+    }
+
+    private Map<Long, Double> bruteForce(long typeId, double x, double y, double radius, int limit) {
+        Map<Long, Double> result = new LinkedHashMap<>();
+        table.values().stream()
+            .filter(shop -> shop.getTypeId() == typeId)
+            .map(shop -> new Object[] {shop.getId(), distance(x, y, shop.getX(), shop.getY())})
+            .filter(pair -> (double) pair[1] <= radius)
+            .sorted(Comparator.comparingDouble(pair -> (double) pair[1]))
+            .limit(limit)
+            .forEach(pair -> result.put((Long) pair[0], (Double) pair[1]));
+        return result;
+    }
+
+    private static double distance(double x1, double y1, double x2, double y2) {
+        double lat1 = Math.toRadians(y1);
+        double lat2 = Math.toRadians(y2);
+        double u = Math.sin((lat2 - lat1) / 2);
+        double v = Math.sin(Math.toRadians(x2 - x1) / 2);
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.sqrt(u * u + Math.cos(lat1) * Math.cos(lat2) * v * v));
+    }
+
+    private Shop randomShop(long id) {
+        double x;
+        double y;
+        int where = random.nextInt(20);
+        if (where == 0) {
+            // 少量商铺在另一个城市，网格的边界会很大
+            x = 121.4 + random.nextDouble() * 0.1;
+            y = 31.2 + random.nextDouble() * 0.1;
+        } else if (where < 5) {
+            // 商圈里很密集，一个格子里有很多商铺
+            x = 120.15 + random.nextDouble() * 0.005;
+            y = 30.25 + random.nextDouble() * 0.005;
+        } else {
+            x = 120.0 + random.nextDouble() * 0.3;
+            y = 30.1 + random.nextDouble() * 0.3;
+        }
+        return new Shop().setId(id).setTypeId(1L + random.nextInt(TYPES)).setX(x).setY(y);
+    }
+
+    private static Shop copy(Shop shop) {
+        return new Shop().setId(shop.getId()).setTypeId(shop.getTypeId()).setX(shop.getX()).setY(shop.getY());
+    }
+}
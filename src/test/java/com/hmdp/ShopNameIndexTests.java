@@ -0,0 +1,221 @@
+package com.hmdp;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.utils.PageCursor;
+import com.hmdp.utils.ShopNameIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 倒排索引的结果和暴力扫描对比：逐页翻完，拼起来应该和 过滤 + 排序 的结果完全一致
+ */
+class ShopNameIndexTests {
+
+    /**
+     * 常用字出现得多，倒排表跨很多块；生僻字出现得少，编号的差值要用多个字节的varint
+     */
+    private static final String COMMON = "川湘粤鲁东西南北大小老新味香麻辣火锅烤鱼面馆酒家茶";
+    private static final String RARE = "龘靐齉";
+    private static final String[] AREAS = {"大关", "拱宸桥", "运河上街", "北城天地", "Upper City"};
+    private static final int SHOPS = 30000;
+    private static final int PAGE_SIZE = 20;
+
+    private final Random random = new Random(20240501L);
+    private final Map<Long, Shop> shops = new LinkedHashMap<>();
+    private ShopNameIndex index;
+
+    @BeforeEach
+    void setUp() {
+        for (long id = 1; id <= SHOPS; id++) {
+            shops.put(id, randomShop(id));
+        }
+        // 模拟reload按id分批扫描
+        List<Shop> rows = new ArrayList<>(shops.values());
+        int[] position = {0};
+        ShopMapper shopMapper = mock(ShopMapper.class);
+        when(shopMapper.selectList(any())).thenAnswer(invocation -> {
+            int from = position[0];
+            int to = Math.min(rows.size(), from + 10000);
+            position[0] = to;
+            return new ArrayList<>(rows.subList(from, to));
+        });
+        index = new ShopNameIndex();
+        ReflectionTestUtils.setField(index, "shopMapper", shopMapper);
+        ReflectionTestUtils.setField(index, "enabled", true);
+        ReflectionTestUtils.setField(index, "mergeThreshold", 1);
+        index.reload();
+        assertTrue(index.isReady());
+    }
+
+    @Test
+    void searchMatchesBruteForce() {
+        assertSearchMatches();
+    }
+
+    @Test
+    void deltaOverridesSnapshot() {
+        // 改名、改评分、新增，这些都只在增量表里
+        for (int i = 0; i < 500; i++) {
+            long id = 1 + random.nextInt(SHOPS);
+            Shop shop = randomShop(id);
+            shops.put(id, shop);
+            index.put(shop);
+        }
+        for (long id = SHOPS + 1; id <= SHOPS + 200; id++) {
+            Shop shop = randomShop(id);
+            shops.put(id, shop);
+            index.put(shop);
+        }
+        int delta = ((Number) index.stats().get("delta")).intValue();
+        assertTrue(delta > 200 && delta <= 700);
+        assertSearchMatches();
+
+        // 合并进快照以后结果不变
+        index.merge();
+        assertEquals(0, ((Number) index.stats().get("delta")).intValue());
+        assertSearchMatches();
+    }
+
+    @Test
+    void suggestMatchesBruteForce() {
+        for (int i = 0; i < 300; i++) {
+            long id = 1 + random.nextInt(SHOPS);
+            Shop shop = randomShop(id);
+            shops.put(id, shop);
+            index.put(shop);
+        }
+        List<String> prefixes = new ArrayList<>();
+        for (int i = 0; i < COMMON.length(); i++) {
+            prefixes.add(COMMON.substring(i, i + 1));
+        }
+        for (int i = 0; i < 50; i++) {
+            prefixes.add(randomText(COMMON, 2));
+            prefixes.add(randomText(COMMON, 3));
+        }
+        prefixes.add(RARE.substring(0, 1));
+        prefixes.add("不存在");
+        for (String prefix : prefixes) {
+            assertEquals(bruteForceSuggest(prefix, 10), index.suggest(prefix, 10), prefix);
+        }
+        assertTrue(index.suggest("  ", 10).isEmpty());
+    }
+
+    private void assertSearchMatches() {
+        List<String> keywords = new ArrayList<>();
+        keywords.add("");
+        keywords.add("不存在的店");
+        for (int i = 0; i < RARE.length(); i++) {
+            keywords.add(RARE.substring(i, i + 1));
+        }
+        for (int i = 0; i < 5; i++) {
+            keywords.add(COMMON.substring(i, i + 1));
+        }
+        for (int i = 0; i < 30; i++) {
+            keywords.add(randomText(COMMON, 2));
+            keywords.add(randomText(COMMON, 3));
+            keywords.add(COMMON.charAt(random.nextInt(COMMON.length())) + RARE.substring(0, 1));
+        }
+        // 商圈也参与匹配，大小写和空格不影响
+        keywords.add("拱宸");
+        keywords.add("upper city");
+        keywords.add(" UPPER  CITY ");
+        for (String keyword : keywords) {
+            List<Long> expected = bruteForceSearch(keyword);
+            assertEquals(expected, searchAll(keyword), "关键字: " + keyword);
+        }
+    }
+
+    /**
+     * 用游标逐页翻到最后一页
+     */
+    private List<Long> searchAll(String keyword) {
+        List<Long> ids = new ArrayList<>();
+        PageCursor cursor = null;
+        do {
+            ShopNameIndex.SearchResult result = index.search(keyword, cursor, PAGE_SIZE);
+            assertTrue(result.getIds().size() <= PAGE_SIZE);
+            if (result.getNext() != null) {
+                assertEquals(PAGE_SIZE, result.getIds().size());
+                // 游标要能编码后原样解析回来
+                cursor = PageCursor.decode(result.getNext().encode());
+                assertEquals(PageCursor.ORDER_NAME_RANK, cursor.getOrder());
+            } else {
+                cursor = null;
+            }
+            ids.addAll(result.getIds());
+        } while (cursor != null);
+        return ids;
+    }
+
+    private List<Long> bruteForceSearch(String keyword) {
+        String query = normalize(keyword);
+        return shops.values().stream()
+            .filter(shop -> normalize(shop.getName()).contains(query) || normalize(shop.getArea()).contains(query))
+            .sorted(rank())
+            .map(Shop::getId)
+            .collect(Collectors.toList());
+    }
+
+    private List<String> bruteForceSuggest(String prefix, int limit) {
+        String query = normalize(prefix);
+        Set<String> names = new LinkedHashSet<>();
+        shops.values().stream()
+            .filter(shop -> normalize(shop.getName()).startsWith(query))
+            .sorted(rank())
+            .forEach(shop -> {
+                if (names.size() < limit) {
+                    names.add(shop.getName());
+                }
+            });
+        return new ArrayList<>(names);
+    }
+
+    private static Comparator<Shop> rank() {
+        return Comparator.comparing(Shop::getScore, Comparator.reverseOrder())
+            .thenComparing(Shop::getSold, Comparator.reverseOrder())
+            .thenComparing(Shop::getId);
+    }
+
+    private static String normalize(String text) {
+        return text == null ? "" : text.replaceAll("\\s", "").toLowerCase();
+    }
+
+    private Shop randomShop(long id) {
+        // 名称3到8个字，百分之二的名称带生僻字
+        StringBuilder name = new StringBuilder(randomText(COMMON, 3 + random.nextInt(6)));
+        if (random.nextInt(50) == 0) {
+            name.insert(random.nextInt(name.length() + 1), RARE.charAt(random.nextInt(RARE.length())));
+        }
+        // 评分和销量的范围小，排序时经常要比到id
+        return new Shop().setId(id).setName(name.toString())
+            .setArea(AREAS[random.nextInt(AREAS.length)])
+            .setScore(30 + random.nextInt(21))
+            .setSold(random.nextInt(50));
+    }
+
+    private String randomText(String alphabet, int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return text.toString();
+    }
+}